@@ -1,19 +1,58 @@
 package demo;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import javax.persistence.Cacheable;
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+import javax.persistence.Version;
+import java.util.Locale;
 import java.util.Objects;
 
 @Entity
+@Table(indexes = {
+ @Index(name = "customer_first_name_idx", columnList = "first_name_lower, id"),
+ @Index(name = "customer_last_name_idx", columnList = "last_name_lower, id") })
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Customer.CACHE_REGION)
 public class Customer {
 
+ public static final String CACHE_REGION = "customers";
+
+ // a pooled sequence hands out ids in blocks, so inserts can be batched
  @Id
- @GeneratedValue
+ @GeneratedValue(generator = "customer-id")
+ @GenericGenerator(name = "customer-id", strategy = "enhanced-sequence", parameters = {
+  @Parameter(name = "sequence_name", value = "customer_seq"),
+  @Parameter(name = "increment_size", value = "50"),
+  @Parameter(name = "optimizer", value = "pooled-lo") })
  private Long id;
 
  private String firstName, lastName;
 
+ // lower-cased copies of the names: case-insensitive lookups compare these
+ // against a lower-cased argument, which a plain index can answer, instead of
+ // comparing upper(firstName) for every row
+ @Column(name = "first_name_lower")
+ private String firstNameLower;
+
+ @Column(name = "last_name_lower")
+ private String lastNameLower;
+
+ // exposed to clients as the ETag, never in the body
+ @Version
+ private Long version;
+
  public Customer(Long id, String f, String l) {
   this.id = id;
   this.firstName = f;
@@ -28,6 +67,17 @@ public class Customer {
   this.lastName = lastName;
  }
 
+ static String normalize(String name) {
+  return name == null ? null : name.toLowerCase(Locale.ROOT);
+ }
+
+ @PrePersist
+ @PreUpdate
+ void normalizeNames() {
+  this.firstNameLower = normalize(this.firstName);
+  this.lastNameLower = normalize(this.lastName);
+ }
+
  @Override
  public boolean equals(Object o) {
   if (this == o)
@@ -62,4 +112,9 @@ public class Customer {
  public String getLastName() {
   return lastName;
  }
+
+ @JsonIgnore
+ public Long getVersion() {
+  return version;
+ }
 }
@@ -0,0 +1,8 @@
+package demo;
+
+public class CustomerBadRequestException extends RuntimeException {
+
+ public CustomerBadRequestException(String message) {
+  super(message);
+ }
+}
@@ -0,0 +1,121 @@
+package demo;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Reads or writes the whole customer table without ever holding more than
+ * a bounded number of entities in the persistence context.
+ */
+@Component
+class CustomerBulkOperations {
+
+ interface CustomerWriter {
+
+  void write(Customer customer) throws IOException;
+ }
+
+ private final CustomerRepository customerRepository;
+
+ private final TransactionTemplate readOnlyTransactionTemplate;
+
+ private final TransactionTemplate transactionTemplate;
+
+ private final int clearInterval;
+
+ private final int batchSize;
+
+ @PersistenceContext
+ private EntityManager entityManager;
+
+ @Autowired
+ CustomerBulkOperations(CustomerRepository customerRepository,
+  PlatformTransactionManager transactionManager,
+  @Value("${customers.bulk.clear-interval:500}") int clearInterval,
+  @Value("${customers.bulk.batch-size:500}") int batchSize) {
+  this.customerRepository = customerRepository;
+  this.clearInterval = clearInterval;
+  this.batchSize = batchSize;
+  this.readOnlyTransactionTemplate = new TransactionTemplate(
+   transactionManager);
+  this.readOnlyTransactionTemplate.setReadOnly(true);
+  this.transactionTemplate = new TransactionTemplate(transactionManager);
+ }
+
+ long export(CustomerWriter writer) throws IOException {
+  try {
+   return this.readOnlyTransactionTemplate.execute(status -> {
+    long count = 0;
+    try (Stream<Customer> customers = this.customerRepository
+     .streamAllByOrderByIdAsc()) {
+     Iterator<Customer> iterator = customers.iterator();
+     while (iterator.hasNext()) {
+      writer.write(iterator.next());
+      if (++count % this.clearInterval == 0) {
+       this.entityManager.clear();
+      }
+     }
+    }
+    catch (IOException ex) {
+     throw new UncheckedIOException(ex);
+    }
+    return count;
+   });
+  }
+  catch (UncheckedIOException ex) {
+   throw ex.getCause();
+  }
+ }
+
+ /**
+  * Parses length-delimited {@link CustomerProtos.Customer} messages one at a
+  * time and saves them in batches of {@code batchSize}, each in its own
+  * transaction.
+  */
+ CustomerIngestSummary ingest(InputStream in) throws IOException {
+  long start = System.currentTimeMillis();
+  List<Customer> batch = new ArrayList<>(this.batchSize);
+  long count = 0;
+  int batches = 0;
+  CustomerProtos.Customer message;
+  while ((message = CustomerProtos.Customer.parseDelimitedFrom(in)) != null) {
+   batch.add(new Customer(message.getFirstName(), message.getLastName()));
+   count++;
+   if (batch.size() == this.batchSize) {
+    save(batch);
+    batches++;
+    batch.clear();
+   }
+  }
+  if (!batch.isEmpty()) {
+   save(batch);
+   batches++;
+  }
+  return new CustomerIngestSummary(count, batches, System.currentTimeMillis()
+   - start);
+ }
+
+ // with open-session-in-view the persistence context outlives the
+ // transaction, so it is cleared or it would keep every ingested customer
+ private void save(List<Customer> batch) {
+  this.transactionTemplate.execute(status -> {
+   this.customerRepository.save(batch);
+   this.entityManager.flush();
+   this.entityManager.clear();
+   return null;
+  });
+ }
+}
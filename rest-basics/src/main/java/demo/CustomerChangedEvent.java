@@ -0,0 +1,70 @@
+package demo;
+
+/**
+ * Published whenever a customer is inserted, updated or deleted, whether
+ * through an entity operation or a bulk statement. Inserts and updates carry
+ * the customer's names after the change, so that listeners never have to
+ * load it. Bulk statements do not read the version back, so unless it is
+ * known from an {@code If-Match} precondition {@link #getVersion()} may be
+ * {@code null}. Listeners that must only see committed state should be
+ * {@code @TransactionalEventListener}s.
+ */
+public class CustomerChangedEvent {
+
+ private final Long id;
+
+ private final Long version;
+
+ private final String firstName, lastName;
+
+ private final boolean deleted;
+
+ private CustomerChangedEvent(Long id, Long version, String firstName,
+  String lastName, boolean deleted) {
+  this.id = id;
+  this.version = version;
+  this.firstName = firstName;
+  this.lastName = lastName;
+  this.deleted = deleted;
+ }
+
+ public static CustomerChangedEvent saved(Customer customer) {
+  return updated(customer.getId(), customer.getVersion(),
+   customer.getFirstName(), customer.getLastName());
+ }
+
+ public static CustomerChangedEvent updated(Long id, Long version,
+  String firstName, String lastName) {
+  return new CustomerChangedEvent(id, version, firstName, lastName, false);
+ }
+
+ public static CustomerChangedEvent deleted(Long id) {
+  return new CustomerChangedEvent(id, null, null, null, true);
+ }
+
+ public Long getId() {
+  return id;
+ }
+
+ public Long getVersion() {
+  return version;
+ }
+
+ public String getFirstName() {
+  return firstName;
+ }
+
+ public String getLastName() {
+  return lastName;
+ }
+
+ public boolean isDeleted() {
+  return deleted;
+ }
+
+ @Override
+ public String toString() {
+  return "CustomerChangedEvent{" + "id=" + id + ", version=" + version
+   + ", deleted=" + deleted + '}';
+ }
+}
@@ -8,6 +8,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 
 import java.util.Optional;
 
@@ -24,6 +25,23 @@ public class CustomerControllerAdvice {
   return this.error(e, HttpStatus.NOT_FOUND, e.getCustomerId() + "");
  }
 
+ @ExceptionHandler(CustomerPreconditionFailedException.class)
+ ResponseEntity<VndErrors> preconditionFailedException(
+  CustomerPreconditionFailedException e) {
+  return this.error(e, HttpStatus.PRECONDITION_FAILED, e.getCustomerId() + "");
+ }
+
+ @ExceptionHandler(CustomerBadRequestException.class)
+ ResponseEntity<VndErrors> badRequestException(CustomerBadRequestException e) {
+  return this.error(e, HttpStatus.BAD_REQUEST, e.getLocalizedMessage());
+ }
+
+ @ExceptionHandler(MaxUploadSizeExceededException.class)
+ ResponseEntity<VndErrors> maxUploadSizeExceededException(
+  MaxUploadSizeExceededException e) {
+  return this.error(e, HttpStatus.PAYLOAD_TOO_LARGE, e.getMaxUploadSize() + "");
+ }
+
  @ExceptionHandler(IllegalArgumentException.class)
  ResponseEntity<VndErrors> assertionException(IllegalArgumentException ex) {
   return this.error(ex, HttpStatus.NOT_FOUND, ex.getLocalizedMessage());
@@ -0,0 +1,63 @@
+package demo;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Turns Hibernate entity events for {@link Customer} into
+ * {@link CustomerChangedEvent}s.
+ */
+@Component
+class CustomerEventPublisher implements PostInsertEventListener,
+ PostUpdateEventListener, PostDeleteEventListener {
+
+ private final ApplicationEventPublisher publisher;
+
+ @Autowired
+ CustomerEventPublisher(EntityManagerFactory entityManagerFactory,
+  ApplicationEventPublisher publisher) {
+  this.publisher = publisher;
+  EventListenerRegistry registry = entityManagerFactory
+   .unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+   .getService(EventListenerRegistry.class);
+  registry.appendListeners(EventType.POST_INSERT, this);
+  registry.appendListeners(EventType.POST_UPDATE, this);
+  registry.appendListeners(EventType.POST_DELETE, this);
+ }
+
+ @Override
+ public void onPostInsert(PostInsertEvent event) {
+  if (event.getEntity() instanceof Customer) {
+   this.publisher.publishEvent(CustomerChangedEvent.saved((Customer) event
+    .getEntity()));
+  }
+ }
+
+ @Override
+ public void onPostUpdate(PostUpdateEvent event) {
+  if (event.getEntity() instanceof Customer) {
+   this.publisher.publishEvent(CustomerChangedEvent.saved((Customer) event
+    .getEntity()));
+  }
+ }
+
+ @Override
+ public void onPostDelete(PostDeleteEvent event) {
+  if (event.getEntity() instanceof Customer) {
+   this.publisher.publishEvent(CustomerChangedEvent.deleted((Long) event
+    .getId()));
+  }
+ }
+
+ @Override
+ public boolean requiresPostCommitHanding(EntityPersister persister) {
+  return false;
+ }
+}
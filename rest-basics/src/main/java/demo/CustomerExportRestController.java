@@ -0,0 +1,85 @@
+package demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+@RestController
+@RequestMapping("/v1/customers/export")
+public class CustomerExportRestController {
+
+ public static final String NDJSON_VALUE = "application/x-ndjson";
+
+ public static final String CSV_VALUE = "text/csv";
+
+ private final CustomerBulkOperations customerBulkOperations;
+
+ private final ObjectWriter customerWriter;
+
+ @Autowired
+ CustomerExportRestController(CustomerBulkOperations customerBulkOperations,
+  ObjectMapper objectMapper) {
+  this.customerBulkOperations = customerBulkOperations;
+  // one customer per line, whatever the global pretty-printing settings are
+  this.customerWriter = objectMapper.writerFor(Customer.class).without(
+   SerializationFeature.INDENT_OUTPUT);
+ }
+
+ @GetMapping(produces = NDJSON_VALUE)
+ ResponseEntity<StreamingResponseBody> ndjson() {
+  StreamingResponseBody body = out -> this.customerBulkOperations
+   .export(customer -> {
+    out.write(this.customerWriter.writeValueAsBytes(customer));
+    out.write('\n');
+   });
+  return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON_VALUE))
+   .body(body);
+ }
+
+ @GetMapping(produces = CSV_VALUE)
+ ResponseEntity<StreamingResponseBody> csv() {
+  StreamingResponseBody body = out -> {
+   Writer writer = new BufferedWriter(new OutputStreamWriter(out,
+    StandardCharsets.UTF_8));
+   writer.write("id,firstName,lastName\n");
+   this.customerBulkOperations.export(customer -> {
+    writer.write(Long.toString(customer.getId()));
+    writer.write(',');
+    writer.write(csvValue(customer.getFirstName()));
+    writer.write(',');
+    writer.write(csvValue(customer.getLastName()));
+    writer.write('\n');
+   });
+   writer.flush();
+  };
+  return ResponseEntity
+   .ok()
+   .contentType(MediaType.parseMediaType(CSV_VALUE + ";charset=UTF-8"))
+   .header(HttpHeaders.CONTENT_DISPOSITION,
+    "attachment; filename=\"customers.csv\"").body(body);
+ }
+
+ private static String csvValue(String value) {
+  if (value == null) {
+   return "";
+  }
+  if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+   && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+   return value;
+  }
+  return '"' + value.replace("\"", "\"\"") + '"';
+ }
+}
@@ -1,10 +1,21 @@
 package demo;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.hateoas.Link;
+import org.springframework.hateoas.MediaTypes;
+import org.springframework.hateoas.PagedResources;
 import org.springframework.hateoas.Resource;
 import org.springframework.hateoas.Resources;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -15,9 +26,15 @@ import org.springframework.web.servlet.support
         .ServletUriComponentsBuilder;
 //@formatter:on
 
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 // <1>
@@ -29,11 +46,38 @@ public class CustomerHypermediaRestController {
 
  private final CustomerRepository customerRepository;
 
+ private static final MediaType HAL_JSON_UTF8 = new MediaType(MediaTypes.HAL_JSON,
+  StandardCharsets.UTF_8);
+
+ private final CustomerVersions customerVersions;
+
+ private final CustomerRepresentationCache representationCache;
+
+ private final CustomerSearchIndex customerSearchIndex;
+
+ private final CustomerLinks customerLinks;
+
+ private final ObjectMapper halObjectMapper;
+
+ private final int maxPageSize;
+
  @Autowired
  CustomerHypermediaRestController(CustomerResourceAssembler cra,
-                                  CustomerRepository customerRepository) {
+                                  CustomerRepository customerRepository,
+                                  CustomerVersions customerVersions,
+                                  CustomerRepresentationCache representationCache,
+                                  CustomerSearchIndex customerSearchIndex,
+                                  CustomerLinks customerLinks,
+                                  @Qualifier("_halObjectMapper") ObjectMapper halObjectMapper,
+                                  @Value("${customers.page.max-size:100}") int maxPageSize) {
   this.customerRepository = customerRepository;
   this.customerResourceAssembler = cra;
+  this.customerVersions = customerVersions;
+  this.representationCache = representationCache;
+  this.customerSearchIndex = customerSearchIndex;
+  this.customerLinks = customerLinks;
+  this.halObjectMapper = halObjectMapper;
+  this.maxPageSize = maxPageSize;
  }
 
  // <3>
@@ -41,7 +85,9 @@ public class CustomerHypermediaRestController {
  ResponseEntity<Resources<Object>> root() {
   Resources<Object> objects = new Resources<>(Collections.emptyList());
   URI uri = MvcUriComponentsBuilder
-   .fromMethodCall(MvcUriComponentsBuilder.on(getClass()).getCollection())
+   .fromMethodCall(
+    MvcUriComponentsBuilder.on(getClass()).getCollection(null, null, null,
+     null))
    .build().toUri();
   Link link = new Link(uri.toString(), "customers");
   objects.add(link);
@@ -50,27 +96,164 @@ public class CustomerHypermediaRestController {
 
  // <4>
  @GetMapping("/customers")
- ResponseEntity<Resources<Resource<Customer>>> getCollection() {
-  List<Resource<Customer>> collect = this.customerRepository.findAll().stream()
-   .map(customerResourceAssembler::toResource)
-   .collect(Collectors.<Resource<Customer>>toList());
-  Resources<Resource<Customer>> resources = new Resources<>(collect);
-  URI self = ServletUriComponentsBuilder.fromCurrentRequest().build().toUri();
-  resources.add(new Link(self.toString(), "self"));
+ ResponseEntity<Resources<Resource<Customer>>> getCollection(
+  @RequestParam(required = false) Long after,
+  @RequestParam(required = false) Long before,
+  @RequestParam(required = false) Integer size,
+  @RequestParam(required = false) Boolean withTotal) {
+
+  int pageSize = pageSize(size);
+  PageRequest pageRequest = new PageRequest(0, pageSize + 1);
+
+  List<Customer> customers;
+  if (before != null) {
+   customers = new ArrayList<>(this.customerRepository
+    .findByIdLessThanOrderByIdDesc(before, pageRequest));
+   Collections.reverse(customers);
+  }
+  else {
+   customers = this.customerRepository.findByIdGreaterThanOrderByIdAsc(
+    after == null ? 0L : after, pageRequest);
+  }
+  return page(customers, pageSize, after, before, withTotal, Customer::getId,
+   this.customerResourceAssembler::toResource);
+ }
+
+ @GetMapping(value = "/customers", params = "fields")
+ ResponseEntity<Resources<Resource<CustomerProjection>>> getCollectionFields(
+  @RequestParam Set<String> fields,
+  @RequestParam(required = false) Long after,
+  @RequestParam(required = false) Long before,
+  @RequestParam(required = false) Integer size,
+  @RequestParam(required = false) Boolean withTotal) {
+  int pageSize = pageSize(size);
+  List<CustomerProjection> customers = this.customerRepository.findFields(
+   fields, after, before, pageSize + 1);
+  return page(customers, pageSize, after, before, withTotal,
+   CustomerProjection::getId, this.customerResourceAssembler::toResource);
+ }
+
+ // ranked by relevance, so paged by page number rather than by a cursor
+ @GetMapping("/customers/fulltext")
+ ResponseEntity<PagedResources<Resource<CustomerProjection>>> fullText(
+  @RequestParam String q, @RequestParam(defaultValue = "0") int page,
+  @RequestParam(required = false) Integer size) {
+  if (page < 0) {
+   throw new CustomerBadRequestException("negative-page " + page);
+  }
+  int pageSize = pageSize(size);
+  Page<CustomerProjection> results = this.customerSearchIndex.search(q,
+   new PageRequest(page, pageSize));
+  List<Resource<CustomerProjection>> content = results.getContent().stream()
+   .map(this.customerResourceAssembler::toResource)
+   .collect(Collectors.toList());
+  PagedResources<Resource<CustomerProjection>> resources = new PagedResources<>(
+   content, new PagedResources.PageMetadata(pageSize, page,
+    results.getTotalElements()));
+  resources.add(new Link(ServletUriComponentsBuilder.fromCurrentRequest()
+   .toUriString(), Link.REL_SELF));
+  if (results.hasNext()) {
+   resources.add(new Link(searchPageLink(page + 1, pageSize), Link.REL_NEXT));
+  }
+  if (results.hasPrevious()) {
+   resources.add(new Link(searchPageLink(page - 1, pageSize),
+    Link.REL_PREVIOUS));
+  }
+  return ResponseEntity.ok(resources);
+ }
+
+ // rows holds up to one row more than a page, beyond the page in the
+ // direction of the cursor, which tells whether there are more rows there
+ // without counting them; the total and the page number take two counts
+ // and are only computed if asked for with withTotal=true
+ private <T> ResponseEntity<Resources<Resource<T>>> page(List<T> rows,
+  int pageSize, Long after, Long before, Boolean withTotal,
+  Function<T, Long> id, Function<T, Resource<T>> assembler) {
+
+  boolean more = rows.size() > pageSize;
+  if (more) {
+   rows = before != null ? rows.subList(1, rows.size()) : rows.subList(0,
+    pageSize);
+  }
+  List<Resource<T>> collect = rows.stream().map(assembler)
+   .collect(Collectors.<Resource<T>>toList());
+
+  Resources<Resource<T>> resources;
+  boolean hasNext, hasPrevious;
+  if (Boolean.TRUE.equals(withTotal)) {
+   long total = this.customerRepository.count();
+   long preceding = rows.isEmpty() ? (before == null ? total : 0)
+    : this.customerRepository.countByIdLessThan(id.apply(rows.get(0)));
+   resources = new PagedResources<>(collect, new PagedResources.PageMetadata(
+    pageSize, preceding / pageSize, total));
+   hasNext = preceding + rows.size() < total;
+   hasPrevious = preceding > 0;
+  }
+  else {
+   resources = new Resources<>(collect);
+   hasNext = before != null || more;
+   hasPrevious = before != null ? more : after != null;
+  }
+
+  resources.add(new Link(ServletUriComponentsBuilder.fromCurrentRequest()
+   .toUriString(), Link.REL_SELF));
+  resources.add(new Link(pageLink(null, null, pageSize), Link.REL_FIRST));
+  if (!rows.isEmpty()) {
+   if (hasNext) {
+    resources.add(new Link(pageLink("after",
+     id.apply(rows.get(rows.size() - 1)), pageSize), Link.REL_NEXT));
+   }
+   if (hasPrevious) {
+    resources.add(new Link(pageLink("before", id.apply(rows.get(0)),
+     pageSize), Link.REL_PREVIOUS));
+   }
+  }
   return ResponseEntity.ok(resources);
  }
 
+ private int pageSize(Integer size) {
+  return (size == null) ? this.maxPageSize : Math.max(1,
+   Math.min(size, this.maxPageSize));
+ }
+
  @RequestMapping(value = "/customers", method = RequestMethod.OPTIONS)
  ResponseEntity<?> options() {
   return ResponseEntity
    .ok()
    .allow(HttpMethod.GET, HttpMethod.POST, HttpMethod.HEAD, HttpMethod.OPTIONS,
-    HttpMethod.PUT, HttpMethod.DELETE).build();
+    HttpMethod.PUT, HttpMethod.PATCH, HttpMethod.DELETE).build();
  }
 
  @GetMapping(value = "/customers/{id}")
- ResponseEntity<Resource<Customer>> get(@PathVariable Long id) {
-  return this.customerRepository.findById(id)
+ ResponseEntity<byte[]> get(@PathVariable Long id,
+  @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+  @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+  Long version = this.customerVersions.current(id);
+  if (CustomerVersions.matches(ifNoneMatch, version)) {
+   return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+    .headers(CustomerVersions.eTagHeaders(version)).build();
+  }
+  // the links are absolute, so the cached bytes are only good for requests
+  // made through the same base URL
+  String variant = "v2 "
+   + ServletUriComponentsBuilder.fromCurrentContextPath().toUriString();
+  return this.representationCache
+   .get(id, version, HAL_JSON_UTF8, variant)
+   .orElseGet(
+    () -> this.customerRepository
+     .findById(id)
+     .map(
+      c -> this.representationCache.put(c.getId(), c.getVersion(),
+       HAL_JSON_UTF8, variant,
+       this.toHal(this.customerResourceAssembler.toResource(c))))
+     .orElseThrow(() -> new CustomerNotFoundException(id)))
+   .toResponse(acceptEncoding);
+ }
+
+ @GetMapping(value = "/customers/{id}", params = "fields")
+ ResponseEntity<Resource<CustomerProjection>> getFields(@PathVariable Long id,
+  @RequestParam Set<String> fields) {
+  return this.customerRepository.findFieldsById(id, fields)
    .map(c -> ResponseEntity.ok(this.customerResourceAssembler.toResource(c)))
    .orElseThrow(() -> new CustomerNotFoundException(id));
  }
@@ -79,18 +262,17 @@ public class CustomerHypermediaRestController {
  ResponseEntity<Resource<Customer>> post(@RequestBody Customer c) {
   Customer customer = this.customerRepository.save(new Customer(c
    .getFirstName(), c.getLastName()));
-  URI uri = MvcUriComponentsBuilder.fromController(getClass())
-   .path("/customers/{id}").buildAndExpand(customer.getId()).toUri();
+  URI uri = URI.create(this.customerLinks.v2Customer(customer.getId()));
   return ResponseEntity.created(uri).body(
    this.customerResourceAssembler.toResource(customer));
  }
 
  @DeleteMapping(value = "/customers/{id}")
  ResponseEntity<?> delete(@PathVariable Long id) {
-  return this.customerRepository.findById(id).map(c -> {
-   customerRepository.delete(c);
-   return ResponseEntity.noContent().build();
-  }).orElseThrow(() -> new CustomerNotFoundException(id));
+  if (this.customerRepository.deleteWithoutLoading(id) == 0) {
+   throw new CustomerNotFoundException(id);
+  }
+  return ResponseEntity.noContent().build();
  }
 
  @RequestMapping(value = "/customers/{id}", method = RequestMethod.HEAD)
@@ -100,15 +282,71 @@ public class CustomerHypermediaRestController {
    .orElseThrow(() -> new CustomerNotFoundException(id));
  }
 
+ private byte[] toHal(Resource<Customer> resource) {
+  FlightRecorderEvents.MessageConversion event = FlightRecorderEvents.MessageConversion
+   .begin(resource.getContent().getId());
+  try {
+   byte[] hal = this.halObjectMapper.writeValueAsBytes(resource);
+   event.bytes = hal.length;
+   return hal;
+  }
+  catch (JsonProcessingException e) {
+   throw new UncheckedIOException(e);
+  }
+  finally {
+   event.mediaType = HAL_JSON_UTF8.toString();
+   event.type = Resource.class.getName();
+   event.commit();
+  }
+ }
+
+ private String searchPageLink(int page, int size) {
+  return ServletUriComponentsBuilder.fromCurrentRequest()
+   .replaceQueryParam("page", page).replaceQueryParam("size", size)
+   .toUriString();
+ }
+
+ private String pageLink(String cursor, Long id, int size) {
+  ServletUriComponentsBuilder builder = ServletUriComponentsBuilder
+   .fromCurrentRequest();
+  builder.replaceQueryParam("after").replaceQueryParam("before")
+   .replaceQueryParam("size", size);
+  if (cursor != null) {
+   builder.replaceQueryParam(cursor, id);
+  }
+  return builder.toUriString();
+ }
+
  @PutMapping("/customers/{id}")
  ResponseEntity<Resource<Customer>> put(@PathVariable Long id,
-  @RequestBody Customer c) {
-  Customer customer = this.customerRepository.save(new Customer(id, c
-   .getFirstName(), c.getLastName()));
+  @RequestBody Customer c,
+  @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+  Long expected = CustomerVersions.expectedVersion(ifMatch);
+  long version = this.customerRepository.updateNames(id, c.getFirstName(),
+   c.getLastName(), expected);
+  if (version == 0) {
+   if (expected != null && this.customerRepository.exists(id)) {
+    throw new CustomerPreconditionFailedException(id);
+   }
+   throw new CustomerNotFoundException(id);
+  }
   Resource<Customer> customerResource = this.customerResourceAssembler
-   .toResource(customer);
+   .toResource(new Customer(id, c.getFirstName(), c.getLastName()));
   URI selfLink = URI.create(ServletUriComponentsBuilder.fromCurrentRequest()
    .toUriString());
-  return ResponseEntity.created(selfLink).body(customerResource);
+  return ResponseEntity.created(selfLink)
+   .headers(CustomerVersions.eTagHeaders(version))
+   .body(customerResource);
+ }
+
+ @PatchMapping(value = "/customers/{id}", consumes = CustomerRestController.MERGE_PATCH_JSON_VALUE)
+ ResponseEntity<Resource<Customer>> patch(@PathVariable Long id,
+  @RequestBody Map<String, Object> patch) {
+  if (!patch.isEmpty() && this.customerRepository.patch(id, patch) == 0) {
+   throw new CustomerNotFoundException(id);
+  }
+  return this.customerRepository.findById(id)
+   .map(c -> ResponseEntity.ok(this.customerResourceAssembler.toResource(c)))
+   .orElseThrow(() -> new CustomerNotFoundException(id));
  }
 }
@@ -0,0 +1,35 @@
+package demo;
+
+public class CustomerIngestSummary {
+
+ private final long customers;
+
+ private final int batches;
+
+ private final long durationInMillis;
+
+ public CustomerIngestSummary(long customers, int batches,
+  long durationInMillis) {
+  this.customers = customers;
+  this.batches = batches;
+  this.durationInMillis = durationInMillis;
+ }
+
+ public long getCustomers() {
+  return customers;
+ }
+
+ public int getBatches() {
+  return batches;
+ }
+
+ public long getDurationInMillis() {
+  return durationInMillis;
+ }
+
+ @Override
+ public String toString() {
+  return "CustomerIngestSummary{" + "customers=" + customers + ", batches="
+   + batches + ", durationInMillis=" + durationInMillis + '}';
+ }
+}
@@ -0,0 +1,94 @@
+package demo;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.util.UriComponentsBuilder;
+
+//@formatter:off
+import org.springframework.web.servlet.mvc.method
+        .annotation.MvcUriComponentsBuilder;
+import org.springframework.web.servlet.support
+        .ServletUriComponentsBuilder;
+//@formatter:on
+
+/**
+ * Builds the per-customer links of every API. The path of each link is
+ * resolved through {@link MvcUriComponentsBuilder} once, at startup, with a
+ * sentinel id that is then cut out of it; the base URL (scheme, host, port and
+ * context path, after {@code X-Forwarded-*} headers) is resolved once per
+ * request. Building a link is then just string concatenation.
+ */
+@Component
+class CustomerLinks {
+
+ private static final long SENTINEL_ID = Long.MIN_VALUE;
+
+ private static final String BASE_URL_ATTRIBUTE = CustomerLinks.class
+  .getName() + ".baseUrl";
+
+ private final Template v1Customer = new Template(MvcUriComponentsBuilder
+  .fromController(UriComponentsBuilder.newInstance(),
+   CustomerRestController.class).path("/{id}"));
+
+ private final Template v2Customer = new Template(
+  MvcUriComponentsBuilder.fromMethodCall(UriComponentsBuilder.newInstance(),
+   MvcUriComponentsBuilder.on(CustomerHypermediaRestController.class).get(
+    SENTINEL_ID, null, null)));
+
+ private final Template protobufCustomer = new Template(MvcUriComponentsBuilder
+  .fromController(UriComponentsBuilder.newInstance(),
+   CustomerProtobufRestController.class).path("/{id}"));
+
+ private final Template profilePhoto = new Template(
+  MvcUriComponentsBuilder.fromMethodCall(UriComponentsBuilder.newInstance(),
+   MvcUriComponentsBuilder.on(CustomerProfilePhotoRestController.class)
+    .read(SENTINEL_ID, null, null, null)));
+
+ String v1Customer(Long id) {
+  return this.v1Customer.expand(id);
+ }
+
+ String v2Customer(Long id) {
+  return this.v2Customer.expand(id);
+ }
+
+ String protobufCustomer(Long id) {
+  return this.protobufCustomer.expand(id);
+ }
+
+ String profilePhoto(Long id) {
+  return this.profilePhoto.expand(id);
+ }
+
+ private static String baseUrl() {
+  RequestAttributes attributes = RequestContextHolder
+   .currentRequestAttributes();
+  String baseUrl = (String) attributes.getAttribute(BASE_URL_ATTRIBUTE,
+   RequestAttributes.SCOPE_REQUEST);
+  if (baseUrl == null) {
+   baseUrl = ServletUriComponentsBuilder.fromCurrentServletMapping()
+    .toUriString();
+   attributes.setAttribute(BASE_URL_ATTRIBUTE, baseUrl,
+    RequestAttributes.SCOPE_REQUEST);
+  }
+  return baseUrl;
+ }
+
+ private static class Template {
+
+  private final String prefix, suffix;
+
+  Template(UriComponentsBuilder builder) {
+   String sentinel = Long.toString(SENTINEL_ID);
+   String path = builder.buildAndExpand(SENTINEL_ID).toUriString();
+   int at = path.indexOf(sentinel);
+   this.prefix = path.substring(0, at);
+   this.suffix = path.substring(at + sentinel.length());
+  }
+
+  String expand(Long id) {
+   return baseUrl() + this.prefix + id + this.suffix;
+  }
+ }
+}
@@ -0,0 +1,46 @@
+package demo;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * The answer to a multi-get: the customers that were found, in the order
+ * in which they were asked for, and the ids that matched nothing.
+ */
+public class CustomerMultiGet {
+
+ private final List<Customer> customers;
+
+ private final List<Long> missing;
+
+ public CustomerMultiGet(List<Customer> customers, List<Long> missing) {
+  this.customers = customers;
+  this.missing = missing;
+ }
+
+ static CustomerMultiGet of(Collection<Long> ids, Collection<Customer> found) {
+  Map<Long, Customer> byId = found.stream().collect(
+   Collectors.toMap(Customer::getId, Function.identity()));
+  List<Customer> customers = new ArrayList<>(byId.size());
+  List<Long> missing = new ArrayList<>();
+  for (Long id : new LinkedHashSet<>(ids)) {
+   Customer customer = byId.get(id);
+   if (customer == null) {
+    missing.add(id);
+   }
+   else {
+    customers.add(customer);
+   }
+  }
+  return new CustomerMultiGet(customers, missing);
+ }
+
+ public List<Customer> getCustomers() {
+  return customers;
+ }
+
+ public List<Long> getMissing() {
+  return missing;
+ }
+}
@@ -0,0 +1,144 @@
+package demo;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Collectors;
+
+/**
+ * An in-memory prefix index of customer names for type-ahead suggestions.
+ * Every customer is listed under its lower-cased first name, last name and
+ * full name in a sorted set of (name, id) postings, so the customers whose
+ * names start with a prefix are a contiguous range of that set. The index is
+ * loaded once the application is ready and then follows every
+ * {@link CustomerChangedEvent}; suggestions never touch the database.
+ */
+@Component
+class CustomerNameIndex {
+
+ private final Log log = LogFactory.getLog(getClass());
+
+ private final NavigableSet<Posting> postings = new ConcurrentSkipListSet<>();
+
+ private final Map<Long, CustomerProjection> customers = new ConcurrentHashMap<>();
+
+ private final CustomerBulkOperations customerBulkOperations;
+
+ @Autowired
+ CustomerNameIndex(CustomerBulkOperations customerBulkOperations) {
+  this.customerBulkOperations = customerBulkOperations;
+ }
+
+ @EventListener(ApplicationReadyEvent.class)
+ public void load() throws IOException {
+  long start = System.currentTimeMillis();
+  long count = this.customerBulkOperations.export(this::index);
+  log.info(String.format("indexed the names of %s customers in %sms", count,
+   System.currentTimeMillis() - start));
+ }
+
+ /**
+  * @return at most {@code limit} customers with a first, last or full name
+  * starting with {@code query}, ignoring case, in name order
+  */
+ List<CustomerProjection> suggest(String query, int limit) {
+  String prefix = Customer.normalize(query.trim());
+  if (prefix.isEmpty()) {
+   return Collections.emptyList();
+  }
+  Set<Long> ids = new LinkedHashSet<>();
+  for (Posting posting : this.postings.tailSet(new Posting(prefix,
+   Long.MIN_VALUE))) {
+   if (!posting.name.startsWith(prefix) || ids.size() == limit) {
+    break;
+   }
+   ids.add(posting.id);
+  }
+  return ids.stream().map(this.customers::get).filter(Objects::nonNull)
+   .collect(Collectors.toList());
+ }
+
+ @TransactionalEventListener(fallbackExecution = true)
+ public void changed(CustomerChangedEvent event) {
+  if (event.isDeleted()) {
+   remove(event.getId());
+  }
+  else {
+   index(event.getId(), event.getFirstName(), event.getLastName());
+  }
+ }
+
+ void index(Customer customer) {
+  index(customer.getId(), customer.getFirstName(), customer.getLastName());
+ }
+
+ // writers are serialized so that the postings of one customer are never
+ // interleaved; readers may briefly see a customer under both names
+ private synchronized void index(Long id, String firstName, String lastName) {
+  remove(id);
+  CustomerProjection projection = new CustomerProjection(id, firstName,
+   lastName);
+  this.customers.put(id, projection);
+  names(projection).forEach(name -> this.postings.add(new Posting(name, id)));
+ }
+
+ synchronized void remove(Long id) {
+  CustomerProjection previous = this.customers.remove(id);
+  if (previous != null) {
+   names(previous).forEach(name -> this.postings.remove(new Posting(name, id)));
+  }
+ }
+
+ private static Set<String> names(CustomerProjection customer) {
+  String first = Customer.normalize(customer.getFirstName());
+  String last = Customer.normalize(customer.getLastName());
+  Set<String> names = new HashSet<>();
+  if (first != null) {
+   names.add(first);
+  }
+  if (last != null) {
+   names.add(last);
+  }
+  if (first != null && last != null) {
+   names.add(first + " " + last);
+  }
+  return names;
+ }
+
+ private static class Posting implements Comparable<Posting> {
+
+  private final String name;
+
+  private final long id;
+
+  Posting(String name, long id) {
+   this.name = name;
+   this.id = id;
+  }
+
+  @Override
+  public int compareTo(Posting other) {
+   int byName = this.name.compareTo(other.name);
+   return byName != 0 ? byName : Long.compare(this.id, other.id);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+   return o instanceof Posting && compareTo((Posting) o) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+   return Objects.hash(name, id);
+  }
+ }
+}
@@ -0,0 +1,384 @@
+package demo;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed storage of the profile photos in {@code upload.dir}:
+ * <ul>
+ * <li>{@code blobs/ab/cd/abcd..}: the bytes, named by their SHA-256, so that
+ * identical photos are stored once</li>
+ * <li>{@code refs/xx/yy/<customerId>}: the SHA-256 of each customer's photo,
+ * fanned out by the two low bytes of the id</li>
+ * </ul>
+ * A customer's reference goes when the customer is deleted. A blob is deleted
+ * as soon as no reference to it is left, and an {@link Orphaned} event is
+ * published. The reference counts are rebuilt from
+ * the references on startup, when unreferenced blobs (e.g. of an interrupted
+ * upload) are deleted as well, and photos of the older flat
+ * {@code <upload.dir>/<customerId>} layout are moved into the store.
+ */
+@Component
+class CustomerPhotoStore implements PublicMetrics {
+
+ private static final Pattern SHA_256 = Pattern.compile("[0-9a-f]{64}");
+
+ private static final Pattern LEGACY_PHOTO = Pattern.compile("[0-9]+");
+
+ private static final int BUFFER_SIZE = 1 << 16;
+
+ private final Log log = LogFactory.getLog(getClass());
+
+ private final ApplicationEventPublisher publisher;
+
+ private final Path blobs;
+
+ private final Path refs;
+
+ private final Path uploads;
+
+ // guarded by this
+ private final Map<String, Integer> references = new HashMap<>();
+
+ private final AtomicLong deduplicated = new AtomicLong();
+
+ @Autowired
+ CustomerPhotoStore(@Value("${upload.dir:${user.home}/images}") String uploadDir,
+  ApplicationEventPublisher publisher) throws IOException {
+  Path root = Paths.get(uploadDir);
+  this.publisher = publisher;
+  this.blobs = Files.createDirectories(root.resolve("blobs"));
+  this.refs = Files.createDirectories(root.resolve("refs"));
+  this.uploads = Files.createDirectories(root.resolve("uploads"));
+  clean(this.uploads);
+  countReferences();
+  deleteUnreferencedBlobs();
+  migrate(root);
+ }
+
+ /**
+  * @return the current photo of the customer, if there is one
+  */
+ Optional<Photo> find(Long customerId) {
+  Path ref = ref(customerId);
+  try {
+   String hash = new String(Files.readAllBytes(ref), StandardCharsets.US_ASCII);
+   Path blob = blob(hash);
+   // a photo replaced between the two reads is still served, it can't be
+   // deleted from under an open file on POSIX systems
+   return Files.exists(blob) ? Optional.of(new Photo(hash, blob.toFile(),
+    Files.getLastModifiedTime(ref).toMillis())) : Optional.empty();
+  }
+  catch (NoSuchFileException e) {
+   return Optional.empty();
+  }
+  catch (IOException e) {
+   throw new UncheckedIOException(e);
+  }
+ }
+
+ /**
+  * Stores the bytes as the customer's photo, hashing them while they are
+  * written. If the same bytes are stored already, only the reference is
+  * written.
+  *
+  * @throws MaxUploadSizeExceededException if there are more than
+  * {@code maxBytes}
+  */
+ Photo store(Long customerId, ReadableByteChannel in, long maxBytes)
+  throws IOException {
+  Path upload = Files.createTempFile(this.uploads, customerId + "-", ".upload");
+  try {
+   MessageDigest sha256 = sha256();
+   ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+   long size = 0;
+   try (FileChannel out = FileChannel.open(upload, StandardOpenOption.WRITE)) {
+    while (in.read(buffer) != -1) {
+     buffer.flip();
+     size += buffer.remaining();
+     if (size > maxBytes) {
+      throw new MaxUploadSizeExceededException(maxBytes);
+     }
+     sha256.update(buffer.array(), buffer.arrayOffset() + buffer.position(),
+      buffer.remaining());
+     while (buffer.hasRemaining()) {
+      out.write(buffer);
+     }
+     buffer.clear();
+    }
+   }
+   String hash = hex(sha256.digest());
+   Path blob = blob(hash);
+   synchronized (this) {
+    if (Files.exists(blob)) {
+     this.deduplicated.incrementAndGet();
+    }
+    else {
+     Files.createDirectories(blob.getParent());
+     Files.move(upload, blob, StandardCopyOption.ATOMIC_MOVE);
+    }
+    link(customerId, hash);
+   }
+   return find(customerId).orElseThrow(
+    () -> new IllegalStateException("photo-not-stored " + customerId));
+  }
+  finally {
+   Files.deleteIfExists(upload);
+  }
+ }
+
+ @TransactionalEventListener(fallbackExecution = true)
+ public void changed(CustomerChangedEvent event) throws IOException {
+  if (event.isDeleted()) {
+   delete(event.getId());
+  }
+ }
+
+ /**
+  * Removes the customer's photo, if there is one.
+  */
+ void delete(Long customerId) throws IOException {
+  synchronized (this) {
+   Path ref = ref(customerId);
+   if (Files.exists(ref)) {
+    String hash = new String(Files.readAllBytes(ref), StandardCharsets.US_ASCII);
+    Files.delete(ref);
+    release(hash);
+   }
+  }
+ }
+
+ Path blob(String hash) {
+  return sharded(this.blobs, hash, "");
+ }
+
+ boolean contains(String hash) {
+  synchronized (this) {
+   return this.references.containsKey(hash);
+  }
+ }
+
+ @Override
+ public Collection<Metric<?>> metrics() {
+  int blobs, references;
+  synchronized (this) {
+   blobs = this.references.size();
+   references = this.references.values().stream().mapToInt(Integer::intValue)
+    .sum();
+  }
+  return Arrays.<Metric<?>> asList(
+   new Metric<>("customers.photo-store.blobs", blobs),
+   new Metric<>("customers.photo-store.references", references),
+   new Metric<>("customers.photo-store.deduplicated", this.deduplicated.get()));
+ }
+
+ /**
+  * @return {@code directory/ab/cd/abcd..suffix}
+  */
+ static Path sharded(Path directory, String hash, String suffix) {
+  return directory.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4))
+   .resolve(hash + suffix);
+ }
+
+ // guarded by this
+ private void link(Long customerId, String hash) throws IOException {
+  Path ref = ref(customerId);
+  String previous = null;
+  if (Files.exists(ref)) {
+   previous = new String(Files.readAllBytes(ref), StandardCharsets.US_ASCII);
+  }
+  Files.createDirectories(ref.getParent());
+  Path temporary = Files.createTempFile(this.uploads, customerId + "-", ".ref");
+  try {
+   Files.write(temporary, hash.getBytes(StandardCharsets.US_ASCII));
+   Files.move(temporary, ref, StandardCopyOption.ATOMIC_MOVE,
+    StandardCopyOption.REPLACE_EXISTING);
+  }
+  finally {
+   Files.deleteIfExists(temporary);
+  }
+  this.references.merge(hash, 1, Integer::sum);
+  if (previous != null) {
+   release(previous);
+  }
+ }
+
+ // guarded by this
+ private void release(String hash) throws IOException {
+  if (this.references.merge(hash, -1, Integer::sum) <= 0) {
+   this.references.remove(hash);
+   Files.deleteIfExists(blob(hash));
+   this.publisher.publishEvent(new Orphaned(hash));
+  }
+ }
+
+ // 65536 directories keep a few hundred refs each even for tens of millions
+ // of customers
+ private Path ref(Long customerId) {
+  return this.refs.resolve(String.format("%02x", customerId & 0xff))
+   .resolve(String.format("%02x", (customerId >> 8) & 0xff))
+   .resolve(Long.toString(customerId));
+ }
+
+ private void countReferences() throws IOException {
+  List<Path> found;
+  try (Stream<Path> refs = Files.walk(this.refs)) {
+   // listed first, so that the moved refs are not walked again
+   found = refs.filter(Files::isRegularFile).collect(Collectors.toList());
+  }
+  for (Path ref : found) {
+   String name = ref.getFileName().toString();
+   if (LEGACY_PHOTO.matcher(name).matches()) {
+    // moves the refs of the older refs/xx/<customerId> layout
+    Path sharded = ref(Long.valueOf(name));
+    if (!ref.equals(sharded)) {
+     Files.createDirectories(sharded.getParent());
+     ref = Files.move(ref, sharded, StandardCopyOption.ATOMIC_MOVE);
+    }
+   }
+   String hash = new String(Files.readAllBytes(ref), StandardCharsets.US_ASCII);
+   if (SHA_256.matcher(hash).matches() && Files.exists(blob(hash))) {
+    this.references.merge(hash, 1, Integer::sum);
+   }
+   else {
+    log.warn("deleting the dangling photo reference " + ref);
+    Files.delete(ref);
+   }
+  }
+ }
+
+ private void deleteUnreferencedBlobs() throws IOException {
+  try (Stream<Path> blobs = Files.walk(this.blobs)) {
+   blobs.filter(Files::isRegularFile)
+    .filter(blob -> !this.references.containsKey(blob.getFileName().toString()))
+    .forEach(blob -> {
+     try {
+      Files.delete(blob);
+     }
+     catch (IOException e) {
+      throw new UncheckedIOException(e);
+     }
+    });
+  }
+ }
+
+ private void migrate(Path root) throws IOException {
+  int migrated = 0;
+  try (DirectoryStream<Path> photos = Files.newDirectoryStream(root,
+   p -> Files.isRegularFile(p)
+    && LEGACY_PHOTO.matcher(p.getFileName().toString()).matches())) {
+   for (Path photo : photos) {
+    try (FileChannel in = FileChannel.open(photo, StandardOpenOption.READ)) {
+     store(Long.valueOf(photo.getFileName().toString()), in, Long.MAX_VALUE);
+    }
+    Files.delete(photo);
+    migrated++;
+   }
+  }
+  if (migrated > 0) {
+   log.info("moved " + migrated + " photos into " + this.blobs);
+  }
+ }
+
+ private static void clean(Path directory) throws IOException {
+  Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+   @Override
+   public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+    throws IOException {
+    Files.delete(file);
+    return FileVisitResult.CONTINUE;
+   }
+  });
+ }
+
+ private static MessageDigest sha256() {
+  try {
+   return MessageDigest.getInstance("SHA-256");
+  }
+  catch (NoSuchAlgorithmException e) {
+   throw new IllegalStateException(e);
+  }
+ }
+
+ private static String hex(byte[] bytes) {
+  StringBuilder hex = new StringBuilder(bytes.length * 2);
+  for (byte b : bytes) {
+   hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(
+    Character.forDigit(b & 0xf, 16));
+  }
+  return hex.toString();
+ }
+
+ static class Photo {
+
+  private final String hash;
+
+  private final File file;
+
+  private final long lastModified;
+
+  Photo(String hash, File file, long lastModified) {
+   this.hash = hash;
+   this.file = file;
+   this.lastModified = lastModified;
+  }
+
+  String getHash() {
+   return hash;
+  }
+
+  File getFile() {
+   return file;
+  }
+
+  /**
+   * @return when the customer's photo was last replaced, which may be later
+   * than the blob was written
+   */
+  long getLastModified() {
+   return lastModified;
+  }
+ }
+
+ /**
+  * Published when the last reference to a blob is gone and it was deleted.
+  */
+ static class Orphaned {
+
+  private final String hash;
+
+  Orphaned(String hash) {
+   this.hash = hash;
+  }
+
+  String getHash() {
+   return hash;
+  }
+ }
+}
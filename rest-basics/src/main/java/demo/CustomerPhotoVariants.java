@@ -0,0 +1,327 @@
+package demo;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Resized JPEG variants of the profile photos, e.g. 64, 256 and 1024 pixels on
+ * the longer side ({@code customers.photo.variant-sizes}), stored like the
+ * {@link CustomerPhotoStore} blobs they are made from, as
+ * {@code variants/<size>/ab/cd/abcd...jpg}.
+ * <p>
+ * They are made in the background after each upload. A marker file in
+ * {@code <upload.dir>/pending} stands for each photo whose variants are still
+ * to be made, so that the work survives a full queue and a restart: the
+ * markers are rescanned on startup and every
+ * {@code customers.photo.variant-rescan} milliseconds. Variants are deleted
+ * with their blob. Photos of more than
+ * {@code customers.photo.variant-max-pixels} pixels are not decoded and get no
+ * variants.
+ */
+@Component
+class CustomerPhotoVariants {
+
+ private static final Pattern SHA_256 = Pattern.compile("[0-9a-f]{64}");
+
+ private final Log log = LogFactory.getLog(getClass());
+
+ private final CustomerPhotoStore photoStore;
+
+ private final Path pending;
+
+ private final Path variants;
+
+ private final int[] sizes;
+
+ private final long maxPixels;
+
+ private final ThreadPoolExecutor workers;
+
+ private final ScheduledExecutorService rescan = Executors
+  .newSingleThreadScheduledExecutor(r -> {
+   Thread thread = new Thread(r, "photo-variant-rescan");
+   thread.setDaemon(true);
+   return thread;
+  });
+
+ private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+ @Autowired
+ CustomerPhotoVariants(@Value("${upload.dir:${user.home}/images}") String uploadDir,
+  @Value("${customers.photo.variant-sizes:64,256,1024}") int[] sizes,
+  @Value("${customers.photo.variant-threads:2}") int threads,
+  @Value("${customers.photo.variant-queue-capacity:256}") int queueCapacity,
+  @Value("${customers.photo.variant-rescan:60000}") long rescanInterval,
+  @Value("${customers.photo.variant-max-pixels:16777216}") long maxPixels,
+  CustomerPhotoStore photoStore) throws IOException {
+  Path root = Paths.get(uploadDir);
+  this.photoStore = photoStore;
+  this.pending = Files.createDirectories(root.resolve("pending"));
+  this.variants = Files.createDirectories(root.resolve("variants"));
+  this.sizes = sizes.clone();
+  Arrays.sort(this.sizes);
+  this.maxPixels = maxPixels;
+  // a full queue drops the task, the marker stays and is picked up later
+  this.workers = new ThreadPoolExecutor(threads, threads, 0L,
+   TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(queueCapacity), r -> {
+    Thread thread = new Thread(r, "photo-variants");
+    thread.setDaemon(true);
+    return thread;
+   }, (task, executor) -> this.queued.remove(((Generation) task).hash));
+  this.rescan.scheduleWithFixedDelay(this::rescan, rescanInterval,
+   rescanInterval, TimeUnit.MILLISECONDS);
+ }
+
+ @EventListener(ApplicationReadyEvent.class)
+ public void ready() {
+  this.rescan.execute(() -> {
+   deleteVariantsWithoutBlob();
+   rescan();
+  });
+ }
+
+ @EventListener
+ public void orphaned(CustomerPhotoStore.Orphaned event) throws IOException {
+  deleteVariants(event.getHash());
+ }
+
+ @PreDestroy
+ public void close() {
+  this.rescan.shutdownNow();
+  this.workers.shutdownNow();
+ }
+
+ /**
+  * Schedules the variants of a photo, unless they have been made already.
+  */
+ void enqueue(String hash) {
+  if (Arrays.stream(this.sizes).allMatch(s -> variantFile(s, hash).exists())) {
+   return;
+  }
+  try {
+   Path marker = this.pending.resolve(hash);
+   if (!Files.exists(marker)) {
+    Files.createFile(marker);
+   }
+  }
+  catch (FileAlreadyExistsException e) {
+   // someone else marked it
+  }
+  catch (IOException e) {
+   throw new UncheckedIOException(e);
+  }
+  schedule(hash);
+ }
+
+ /**
+  * @return the smallest variant of the photo that is at least {@code size}
+  * pixels, or nothing if there is no such size or the variant has not been
+  * made yet
+  */
+ Optional<File> variant(String hash, int size) {
+  for (int variantSize : this.sizes) {
+   if (variantSize >= size) {
+    File variant = variantFile(variantSize, hash);
+    return variant.exists() ? Optional.of(variant) : Optional.empty();
+   }
+  }
+  return Optional.empty();
+ }
+
+ /**
+  * @return whether {@link #variant(String, int)} will eventually return a
+  * variant for {@code size}, rather than the original
+  */
+ boolean hasVariant(int size) {
+  return size <= this.sizes[this.sizes.length - 1];
+ }
+
+ private void rescan() {
+  try (DirectoryStream<Path> markers = Files.newDirectoryStream(this.pending)) {
+   for (Path marker : markers) {
+    String hash = marker.getFileName().toString();
+    if (SHA_256.matcher(hash).matches()) {
+     schedule(hash);
+    }
+    else {
+     Files.deleteIfExists(marker);
+    }
+   }
+  }
+  catch (IOException e) {
+   log.warn("could not scan " + this.pending, e);
+  }
+ }
+
+ // catches up with blobs that were deleted while the application was down
+ private void deleteVariantsWithoutBlob() {
+  try (Stream<Path> variants = Files.walk(this.variants)) {
+   variants
+    .filter(Files::isRegularFile)
+    .filter(
+     v -> !this.photoStore.contains(v.getFileName().toString()
+      .replaceFirst("\\.jpg$", ""))).forEach(v -> {
+     try {
+      Files.deleteIfExists(v);
+     }
+     catch (IOException e) {
+      throw new UncheckedIOException(e);
+     }
+    });
+  }
+  catch (IOException | UncheckedIOException e) {
+   log.warn("could not clean " + this.variants, e);
+  }
+ }
+
+ private void schedule(String hash) {
+  if (this.queued.add(hash)) {
+   this.workers.execute(new Generation(hash));
+  }
+ }
+
+ private void generate(String hash) {
+  this.queued.remove(hash);
+  Path marker = this.pending.resolve(hash);
+  try {
+   File blob = this.photoStore.blob(hash).toFile();
+   BufferedImage image = this.photoStore.contains(hash) && blob.exists() ? read(
+    blob, hash) : null;
+   if (image == null) {
+    Files.deleteIfExists(marker);
+    return;
+   }
+   for (int size : this.sizes) {
+    File variant = variantFile(size, hash);
+    if (!variant.exists() && this.photoStore.contains(hash)) {
+     write(scale(image, size), variant);
+    }
+   }
+   // the photo may have been orphaned while its variants were written, and
+   // orphaned(..) may have run before they were
+   if (!this.photoStore.contains(hash)) {
+    deleteVariants(hash);
+   }
+   Files.deleteIfExists(marker);
+  }
+  catch (IOException | RuntimeException e) {
+   log.warn("could not make the variants of photo " + hash, e);
+  }
+ }
+
+ // reads the dimensions before decoding, so that a small file can't make
+ // the decoder allocate gigabytes of pixels
+ private BufferedImage read(File blob, String hash) throws IOException {
+  try (ImageInputStream in = ImageIO.createImageInputStream(blob)) {
+   Iterator<ImageReader> readers = in == null ? Collections
+    .<ImageReader> emptyIterator() : ImageIO.getImageReaders(in);
+   if (!readers.hasNext()) {
+    log.warn("not an image, no variants for photo " + hash);
+    return null;
+   }
+   ImageReader reader = readers.next();
+   try {
+    reader.setInput(in, true, true);
+    long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+    if (pixels > this.maxPixels) {
+     log.warn(String.format(
+      "%s pixels are more than %s, no variants for photo %s", pixels,
+      this.maxPixels, hash));
+     return null;
+    }
+    return reader.read(0);
+   }
+   finally {
+    reader.dispose();
+   }
+  }
+ }
+
+ private void deleteVariants(String hash) throws IOException {
+  for (int size : this.sizes) {
+   Files.deleteIfExists(variantFile(size, hash).toPath());
+  }
+ }
+
+ private class Generation implements Runnable {
+
+  private final String hash;
+
+  Generation(String hash) {
+   this.hash = hash;
+  }
+
+  @Override
+  public void run() {
+   generate(this.hash);
+  }
+ }
+
+ // halves the image until the next step reaches the target, which looks
+ // nearly as good as an area-averaging scale and is a lot faster
+ private static BufferedImage scale(BufferedImage image, int size) {
+  double factor = Math.min(1.0,
+   (double) size / Math.max(image.getWidth(), image.getHeight()));
+  int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * factor));
+  int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * factor));
+  BufferedImage scaled = image;
+  int width = image.getWidth(), height = image.getHeight();
+  do {
+   width = Math.max(targetWidth, width / 2);
+   height = Math.max(targetHeight, height / 2);
+   BufferedImage next = new BufferedImage(width, height,
+    BufferedImage.TYPE_INT_RGB);
+   Graphics2D graphics = next.createGraphics();
+   graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+   graphics.drawImage(scaled, 0, 0, width, height, null);
+   graphics.dispose();
+   scaled = next;
+  }
+  while (width != targetWidth || height != targetHeight);
+  return scaled;
+ }
+
+ private static void write(BufferedImage image, File variant)
+  throws IOException {
+  Files.createDirectories(variant.getParentFile().toPath());
+  Path temporary = Files.createTempFile(variant.getParentFile().toPath(),
+   variant.getName(), ".tmp");
+  try {
+   if (!ImageIO.write(image, "jpg", temporary.toFile())) {
+    throw new IOException("no JPEG writer");
+   }
+   Files.move(temporary, variant.toPath(), StandardCopyOption.ATOMIC_MOVE,
+    StandardCopyOption.REPLACE_EXISTING);
+  }
+  finally {
+   Files.deleteIfExists(temporary);
+  }
+ }
+
+ private File variantFile(int size, String hash) {
+  return CustomerPhotoStore.sharded(
+   this.variants.resolve(Integer.toString(size)), hash, ".jpg").toFile();
+ }
+}
@@ -0,0 +1,15 @@
+package demo;
+
+public class CustomerPreconditionFailedException extends RuntimeException {
+
+ private final Long id;
+
+ public CustomerPreconditionFailedException(Long id) {
+  super("customer-precondition-failed-" + id);
+  this.id = id;
+ }
+
+ public Long getCustomerId() {
+  return id;
+ }
+}
@@ -4,18 +4,22 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.util.Assert;
-import org.springframework.util.FileCopyUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 //@formatter:off
 import static org.springframework.web.servlet
@@ -26,36 +30,71 @@ import static org.springframework.web.servlet
 @RequestMapping(value = "/customers/{id}/photo")
 public class CustomerProfilePhotoRestController {
 
- private File root;
+ private final long maxUploadSize;
+ private final CacheControl cacheControl;
  private final CustomerRepository customerRepository;
+ private final CustomerPhotoStore photoStore;
+ private final CustomerPhotoVariants photoVariants;
  private final Log log = LogFactory.getLog(getClass());
 
  @Autowired
  CustomerProfilePhotoRestController(
-         @Value("${upload.dir:${user.home}/images}") String uploadDir,
-         CustomerRepository customerRepository) {
-  this.root = new File(uploadDir);
+         @Value("${customers.photo.max-age:604800}") long maxAge,
+         @Value("${customers.photo.max-upload-size:10485760}") long maxUploadSize,
+         CustomerRepository customerRepository,
+         CustomerPhotoStore photoStore,
+         CustomerPhotoVariants photoVariants) {
+  this.cacheControl = CacheControl.maxAge(maxAge, TimeUnit.SECONDS)
+   .cachePublic();
+  this.maxUploadSize = maxUploadSize;
   this.customerRepository = customerRepository ;
-  Assert.isTrue(this.root.exists() || this.root.mkdirs(),
-   String.format("The path '%s' must exist.", this.root.getAbsolutePath()));
+  this.photoStore = photoStore;
+  this.photoVariants = photoVariants;
  }
 
  // <1>
  @GetMapping
- ResponseEntity<Resource> read(@PathVariable Long id) {
-  return this.customerRepository
-   .findById(id)
-   .map(
-    customer -> {
-     File file = fileFor(customer);
-
-     Assert.isTrue(file.exists(),
-      String.format("file-not-found %s", file.getAbsolutePath()));
+ void read(@PathVariable Long id, @RequestParam(required = false) Integer size,
+  HttpServletRequest request, HttpServletResponse response) {
+  Customer customer = this.customerRepository.findById(id).orElseThrow(
+   () -> new CustomerNotFoundException(id));
+  CustomerPhotoStore.Photo photo = this.photoStore.find(customer.getId())
+   .orElseThrow(
+    () -> new IllegalArgumentException(String.format("file-not-found %s",
+     customer.getId())));
+  // the blob may be older than the customer's reference to it
+  File file = photo.getFile();
+  String eTag = "\"" + photo.getHash() + "\"";
+  long lastModified = photo.getLastModified();
+  CacheControl cacheControl = this.cacheControl;
+  if (size != null && this.photoVariants.hasVariant(size)) {
+   Optional<File> variant = this.photoVariants.variant(photo.getHash(), size);
+   if (variant.isPresent()) {
+    file = variant.get();
+    eTag = "\"" + photo.getHash() + "-" + size + "\"";
+    lastModified = Math.max(lastModified, file.lastModified());
+   }
+   else {
+    // the original stands in until the variant is made, and must not be
+    // cached in its place
+    cacheControl = CacheControl.noCache();
+    this.photoVariants.enqueue(photo.getHash());
+   }
+  }
 
-     Resource fileSystemResource = new FileSystemResource(file);
-     return ResponseEntity.ok().contentType(MediaType.IMAGE_JPEG)
-      .body(fileSystemResource);
-    }).orElseThrow(() -> new CustomerNotFoundException(id));
+  // with sendfile, the bytes are transferred after the event has ended
+  FlightRecorderEvents.PhotoIo event = FlightRecorderEvents.PhotoIo.begin(
+   "read", id);
+  try {
+   event.bytes = FileDownloads.serve(file, eTag, lastModified,
+    MediaType.IMAGE_JPEG, cacheControl, request, response);
+  }
+  catch (IOException e) {
+   throw new UncheckedIOException(e);
+  }
+  finally {
+   event.commit();
+  }
  }
 
  // <2>
@@ -69,10 +108,8 @@ public class CustomerProfilePhotoRestController {
    .findById(id)
    .map(
     customer -> {
-     File fileForCustomer = fileFor(customer);
-     try (InputStream in = file.getInputStream();
-      OutputStream out = new FileOutputStream(fileForCustomer)) {
-      FileCopyUtils.copy(in, out);
+     try (InputStream in = file.getInputStream()) {
+      store(customer, Channels.newChannel(in));
      }
      catch (IOException ex) {
       throw new RuntimeException(ex);
@@ -84,7 +121,39 @@ public class CustomerProfilePhotoRestController {
     }).orElseThrow(() -> new CustomerNotFoundException(id));
  }
 
- private File fileFor(Customer person) {
-  return new File(this.root, Long.toString(person.getId()));
+ // the body is the photo itself, so it's neither parsed nor spooled
+ @PutMapping(consumes = { "image/*", MediaType.APPLICATION_OCTET_STREAM_VALUE })
+ Callable<ResponseEntity<?>> writeRaw(@PathVariable Long id,
+  HttpServletRequest request) {
+  long contentLength = request.getContentLengthLong();
+  log.info(String.format("upload-start /customers/%s/photo (%s bytes)", id,
+   contentLength));
+  if (contentLength > this.maxUploadSize) {
+   throw new MaxUploadSizeExceededException(this.maxUploadSize);
+  }
+  URI location = fromCurrentRequest().build().toUri();
+  return () -> {
+   Customer customer = this.customerRepository.findById(id).orElseThrow(
+    () -> new CustomerNotFoundException(id));
+   store(customer, Channels.newChannel(request.getInputStream()));
+   log.info(String.format("upload-finish /customers/%s/photo (%s)", id,
+    location));
+   return ResponseEntity.created(location).build();
+  };
+ }
+
+ private void store(Customer customer, ReadableByteChannel in)
+  throws IOException {
+  FlightRecorderEvents.PhotoIo event = FlightRecorderEvents.PhotoIo.begin(
+   "write", customer.getId());
+  try {
+   CustomerPhotoStore.Photo photo = this.photoStore.store(customer.getId(),
+    in, this.maxUploadSize);
+   event.bytes = photo.getFile().length();
+   this.photoVariants.enqueue(photo.getHash());
+  }
+  finally {
+   event.commit();
+  }
  }
 }
@@ -0,0 +1,41 @@
+package demo;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.springframework.hateoas.core.Relation;
+
+/**
+ * A customer carrying only the columns asked for with {@code ?fields=...}.
+ * Properties that were not selected are {@code null} and are not rendered.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Relation(value = "customer", collectionRelation = "customers")
+public class CustomerProjection {
+
+ private final Long id;
+
+ private final String firstName, lastName;
+
+ public CustomerProjection(Long id, String firstName, String lastName) {
+  this.id = id;
+  this.firstName = firstName;
+  this.lastName = lastName;
+ }
+
+ public Long getId() {
+  return id;
+ }
+
+ public String getFirstName() {
+  return firstName;
+ }
+
+ public String getLastName() {
+  return lastName;
+ }
+
+ @Override
+ public String toString() {
+  return "CustomerProjection{" + "id=" + id + ", firstName='" + firstName
+   + '\'' + ", lastName='" + lastName + '\'' + '}';
+ }
+}
@@ -1,19 +1,27 @@
 package demo;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.protobuf.ProtobufHttpMessageConverter;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 //@formatter:off
-import org.springframework.web.servlet.mvc.method
-        .annotation.MvcUriComponentsBuilder;
 import static org.springframework.web.servlet.support
         .ServletUriComponentsBuilder.fromCurrentRequest;
 //@formatter:on
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 
@@ -21,20 +29,142 @@ import java.util.stream.Collectors;
 @RequestMapping(value = "/v1/protos/customers")
 public class CustomerProtobufRestController {
 
+ // a stream of varint length-prefixed CustomerProtos.Customer messages
+ public static final String PROTOBUF_DELIMITED_VALUE = "application/x-protobuf-delimited";
+
+ public static final MediaType PROTOBUF_DELIMITED = MediaType
+  .parseMediaType(PROTOBUF_DELIMITED_VALUE);
+
+ public static final String MISSING_IDS_HEADER = "X-Missing-Ids";
+
  private final CustomerRepository customerRepository;
 
+ private final CustomerBulkOperations customerBulkOperations;
+
+ private final CustomerVersions customerVersions;
+
+ private final CustomerRepresentationCache representationCache;
+
+ private final CustomerLinks customerLinks;
+
+ private final int maxPageSize;
+
  @Autowired
- public CustomerProtobufRestController(CustomerRepository customerRepository) {
+ public CustomerProtobufRestController(CustomerRepository customerRepository,
+  CustomerBulkOperations customerBulkOperations,
+  CustomerVersions customerVersions,
+  CustomerRepresentationCache representationCache,
+  CustomerLinks customerLinks,
+  @Value("${customers.page.max-size:100}") int maxPageSize) {
   this.customerRepository = customerRepository;
+  this.customerBulkOperations = customerBulkOperations;
+  this.customerVersions = customerVersions;
+  this.representationCache = representationCache;
+  this.customerLinks = customerLinks;
+  this.maxPageSize = maxPageSize;
+ }
+
+ // the binary encoding is served from the representation cache; the text
+ // formats (JSON, XML, ..) of protobuf-java-format go through get(..) below
+ @GetMapping(value = "/{id}", produces = "application/x-protobuf")
+ ResponseEntity<byte[]> getBinary(@PathVariable Long id,
+  @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+  @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+  Long version = this.customerVersions.current(id);
+  if (CustomerVersions.matches(ifNoneMatch, version)) {
+   return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+    .headers(CustomerVersions.eTagHeaders(version)).build();
+  }
+  MediaType protobuf = ProtobufHttpMessageConverter.PROTOBUF;
+  return this.representationCache
+   .get(id, version, protobuf, "v1")
+   .orElseGet(
+    () -> this.customerRepository
+     .findById(id)
+     .map(
+      c -> this.representationCache.put(c.getId(), c.getVersion(), protobuf,
+       "v1", toByteArray(this.fromEntityToProtobuf(c))))
+     .orElseThrow(() -> new CustomerNotFoundException(id)))
+   .toResponse(acceptEncoding, protobufHeaders());
  }
 
  @GetMapping(value = "/{id}")
- ResponseEntity<CustomerProtos.Customer> get(@PathVariable Long id) {
-  return this.customerRepository.findById(id).map(this::fromEntityToProtobuf)
-   .map(ResponseEntity::ok)
+ ResponseEntity<CustomerProtos.Customer> get(@PathVariable Long id,
+  @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+  Long version = this.customerVersions.current(id);
+  if (CustomerVersions.matches(ifNoneMatch, version)) {
+   return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+    .headers(CustomerVersions.eTagHeaders(version)).build();
+  }
+  return this.customerRepository
+   .findById(id)
+   .map(
+    c -> ResponseEntity.ok()
+     .headers(CustomerVersions.eTagHeaders(c.getVersion()))
+     .body(this.fromEntityToProtobuf(c)))
+   .orElseThrow(() -> new CustomerNotFoundException(id));
+ }
+
+ // the same schema headers that ProtobufHttpMessageConverter adds
+ private static HttpHeaders protobufHeaders() {
+  HttpHeaders headers = new HttpHeaders();
+  headers.set(ProtobufHttpMessageConverter.X_PROTOBUF_SCHEMA_HEADER,
+   CustomerProtos.Customer.getDescriptor().getFile().getName());
+  headers.set(ProtobufHttpMessageConverter.X_PROTOBUF_MESSAGE_HEADER,
+   CustomerProtos.Customer.getDescriptor().getFullName());
+  return headers;
+ }
+
+ // firstName and lastName are required in customer.proto, so a projection
+ // is a partial message: decode it with newBuilder().mergeFrom(..)
+ // .buildPartial() rather than parseFrom(..)
+ @GetMapping(value = "/{id}", params = "fields")
+ ResponseEntity<CustomerProtos.Customer> getFields(@PathVariable Long id,
+  @RequestParam Set<String> fields) {
+  return this.customerRepository.findFieldsById(id, fields)
+   .map(this::fromProjectionToProtobuf).map(ResponseEntity::ok)
    .orElseThrow(() -> new CustomerNotFoundException(id));
  }
 
+ @GetMapping(params = "fields")
+ ResponseEntity<CustomerProtos.Customers> getCollectionFields(
+  @RequestParam Set<String> fields,
+  @RequestParam(defaultValue = "0") Long after,
+  @RequestParam(required = false) Integer limit) {
+  int pageSize = (limit == null) ? this.maxPageSize : Math.max(1,
+   Math.min(limit, this.maxPageSize));
+  // fetch one extra row to find out whether there is a next page
+  List<CustomerProjection> rows = this.customerRepository.findFields(fields,
+   after, null, pageSize + 1);
+  CustomerProtos.Customers.Builder customers = CustomerProtos.Customers
+   .newBuilder();
+  rows.stream().limit(pageSize)
+   .forEach(c -> customers.addCustomer(fromProjectionToProtobuf(c)));
+  if (rows.size() <= pageSize) {
+   return ResponseEntity.ok(customers.buildPartial());
+  }
+  // the same cursor link as the JSON representation
+  String next = fromCurrentRequest()
+   .replaceQueryParam("after", rows.get(pageSize - 1).getId())
+   .replaceQueryParam("limit", pageSize).toUriString();
+  return ResponseEntity.ok()
+   .header(HttpHeaders.LINK, String.format("<%s>; rel=\"next\"", next))
+   .body(customers.buildPartial());
+ }
+
+ // customer.proto has no room for the ids that were not found, so they
+ // are listed in a response header instead
+ @GetMapping(params = "ids")
+ ResponseEntity<CustomerProtos.Customers> getByIds(@RequestParam List<Long> ids) {
+  CustomerMultiGet result = CustomerMultiGet.of(ids,
+   this.customerRepository.findByIds(ids));
+  return ResponseEntity
+   .ok()
+   .header(MISSING_IDS_HEADER,
+    StringUtils.collectionToCommaDelimitedString(result.getMissing()))
+   .body(this.fromCollectionToProtobuf(result.getCustomers()));
+ }
+
  @GetMapping
  ResponseEntity<CustomerProtos.Customers> getCollection() {
   List<Customer> all = this.customerRepository.findAll();
@@ -42,6 +172,13 @@ public class CustomerProtobufRestController {
   return ResponseEntity.ok(customers);
  }
 
+ @GetMapping(produces = PROTOBUF_DELIMITED_VALUE)
+ ResponseEntity<StreamingResponseBody> getCollectionDelimited() {
+  StreamingResponseBody body = out -> this.customerBulkOperations
+   .export(customer -> fromEntityToProtobuf(customer).writeDelimitedTo(out));
+  return ResponseEntity.ok().contentType(PROTOBUF_DELIMITED).body(body);
+ }
+
  @PostMapping
  ResponseEntity<CustomerProtos.Customer> post(
   @RequestBody CustomerProtos.Customer c) {
@@ -49,29 +186,35 @@ public class CustomerProtobufRestController {
   Customer customer = this.customerRepository.save(new Customer(c
    .getFirstName(), c.getLastName()));
 
-  URI uri = MvcUriComponentsBuilder.fromController(getClass()).path("/{id}")
-   .buildAndExpand(customer.getId()).toUri();
+  URI uri = URI.create(this.customerLinks.protobufCustomer(customer.getId()));
   return ResponseEntity.created(uri).body(this.fromEntityToProtobuf(customer));
  }
 
+ // the body is parsed as it arrives, so a sync of millions of customers
+ // never has to be buffered in full
+ @PostMapping(value = "/ingest", consumes = PROTOBUF_DELIMITED_VALUE)
+ ResponseEntity<CustomerIngestSummary> ingest(InputStream body)
+  throws IOException {
+  return ResponseEntity.ok(this.customerBulkOperations.ingest(body));
+ }
+
  @PutMapping("/{id}")
  ResponseEntity<CustomerProtos.Customer> put(@PathVariable Long id,
-  @RequestBody CustomerProtos.Customer c) {
-
-  return this.customerRepository
-   .findById(id)
-   .map(
-    existing -> {
-
-     Customer customer = this.customerRepository.save(new Customer(existing
-      .getId(), c.getFirstName(), c.getLastName()));
-
-     URI selfLink = URI.create(fromCurrentRequest().toUriString());
-
-     return ResponseEntity.created(selfLink).body(
-      fromEntityToProtobuf(customer));
-
-    }).orElseThrow(() -> new CustomerNotFoundException(id));
+  @RequestBody CustomerProtos.Customer c,
+  @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+  Long expected = CustomerVersions.expectedVersion(ifMatch);
+  long version = this.customerRepository.updateNames(id, c.getFirstName(),
+   c.getLastName(), expected);
+  if (version == 0) {
+   if (expected != null && this.customerRepository.exists(id)) {
+    throw new CustomerPreconditionFailedException(id);
+   }
+   throw new CustomerNotFoundException(id);
+  }
+  URI selfLink = URI.create(fromCurrentRequest().toUriString());
+  return ResponseEntity.created(selfLink)
+   .headers(CustomerVersions.eTagHeaders(version))
+   .body(fromEntityToProtobuf(id, c.getFirstName(), c.getLastName()));
  }
 
  private CustomerProtos.Customers fromCollectionToProtobuf(
@@ -83,17 +226,52 @@ public class CustomerProtobufRestController {
    .build();
  }
 
+ private CustomerProtos.Customer fromProjectionToProtobuf(
+  CustomerProjection c) {
+  CustomerProtos.Customer.Builder builder = CustomerProtos.Customer
+   .newBuilder().setId(c.getId());
+  if (c.getFirstName() != null) {
+   builder.setFirstName(c.getFirstName());
+  }
+  if (c.getLastName() != null) {
+   builder.setLastName(c.getLastName());
+  }
+  return builder.buildPartial();
+ }
+
  private CustomerProtos.Customer fromEntityToProtobuf(Customer c) {
   return fromEntityToProtobuf(c.getId(), c.getFirstName(), c.getLastName());
  }
 
  private CustomerProtos.Customer fromEntityToProtobuf(Long id, String f,
   String l) {
-  CustomerProtos.Customer.Builder builder = CustomerProtos.Customer
-   .newBuilder();
-  if (id != null && id > 0) {
-   builder.setId(id);
+  FlightRecorderEvents.RepresentationMapping event = FlightRecorderEvents.RepresentationMapping
+   .begin("protobuf", id);
+  try {
+   CustomerProtos.Customer.Builder builder = CustomerProtos.Customer
+    .newBuilder();
+   if (id != null && id > 0) {
+    builder.setId(id);
+   }
+   return builder.setFirstName(f).setLastName(l).build();
+  }
+  finally {
+   event.commit();
+  }
+ }
+
+ private static byte[] toByteArray(CustomerProtos.Customer customer) {
+  FlightRecorderEvents.MessageConversion event = FlightRecorderEvents.MessageConversion
+   .begin(customer.getId());
+  try {
+   byte[] protobuf = customer.toByteArray();
+   event.bytes = protobuf.length;
+   return protobuf;
+  }
+  finally {
+   event.mediaType = ProtobufHttpMessageConverter.PROTOBUF.toString();
+   event.type = CustomerProtos.Customer.class.getName();
+   event.commit();
   }
-  return builder.setFirstName(f).setLastName(l).build();
  }
 }
@@ -1,16 +1,62 @@
 package demo;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
+import javax.persistence.QueryHint;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
-public interface CustomerRepository extends JpaRepository<Customer, Long> {
+//@formatter:off
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.QueryHints.HINT_CACHE_REGION;
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+//@formatter:on
 
+public interface CustomerRepository extends JpaRepository<Customer, Long>,
+ CustomerRepositoryCustom {
+
+ String NAME_QUERY_REGION = "customers-by-name";
+
+ // the ids found are kept in the query cache, the customers themselves in the
+ // "customers" region
+ @QueryHints({ @QueryHint(name = HINT_CACHEABLE, value = "true"),
+  @QueryHint(name = HINT_CACHE_REGION, value = NAME_QUERY_REGION) })
+ @Query("select c from Customer c where c.firstNameLower = lower(:fn)")
  Collection<Customer> findByFirstNameIgnoreCase(@Param("fn") String firstName);
 
- Optional<Customer> findById(@Param("id") Long id);
+ // unlike a derived query, findOne(..) goes through the second-level cache
+ default Optional<Customer> findById(Long id) {
+  return Optional.ofNullable(findOne(id));
+ }
 
+ @QueryHints({ @QueryHint(name = HINT_CACHEABLE, value = "true"),
+  @QueryHint(name = HINT_CACHE_REGION, value = NAME_QUERY_REGION) })
+ @Query("select c from Customer c where c.lastNameLower = lower(:ln)")
  Collection<Customer> findByLastNameIgnoreCase(@Param("ln") String ln);
+
+ // keyset pagination: walks the primary key index instead of using OFFSET
+ List<Customer> findByIdGreaterThanOrderByIdAsc(@Param("id") Long id,
+  Pageable pageable);
+
+ List<Customer> findByIdLessThanOrderByIdDesc(@Param("id") Long id,
+  Pageable pageable);
+
+ long countByIdLessThan(@Param("id") Long id);
+
+ // revalidating a customer only needs its version, not the whole row
+ @Query("select c.version from Customer c where c.id = :id")
+ Long findVersionById(@Param("id") Long id);
+
+ // must be consumed (and closed) inside a transaction
+ @QueryHints({ @QueryHint(name = HINT_FETCH_SIZE, value = "500"),
+  @QueryHint(name = HINT_READONLY, value = "true") })
+ @Query("select c from Customer c order by c.id")
+ Stream<Customer> streamAllByOrderByIdAsc();
 }
@@ -0,0 +1,69 @@
+package demo;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+interface CustomerRepositoryCustom {
+
+ /**
+  * Selects only the given {@code fields} (plus {@code id}) of a customer.
+  */
+ Optional<CustomerProjection> findFieldsById(Long id, Set<String> fields);
+
+ /**
+  * Selects only the given {@code fields} (plus {@code id}) of at most
+  * {@code limit} customers whose id is greater than {@code after} or, if
+  * {@code before} is given, less than {@code before}. The result is always
+  * ordered by ascending id.
+  */
+ List<CustomerProjection> findFields(Set<String> fields, Long after,
+  Long before, int limit);
+
+ /**
+  * Loads the customers with the given ids using {@code IN} queries of a
+  * bounded size. Unknown ids are ignored.
+  */
+ List<Customer> findByIds(Collection<Long> ids);
+
+ /**
+  * Finds at most {@code limit} customers whose {@code field} ({@code firstName}
+  * or {@code lastName}) equals, or if {@code prefix} is set starts with,
+  * {@code name}, ignoring case. The result is ordered by the lower-cased name
+  * and then by id, and starts after the customer with the lower-cased name
+  * {@code afterName} and id {@code afterId} if they are given.
+  */
+ List<Customer> searchByName(String field, String name, boolean prefix,
+  String afterName, Long afterId, int limit);
+
+ /**
+  * Updates the names of a customer, and increments its version, with a
+  * single {@code UPDATE} statement. If {@code expectedVersion} is not
+  * {@code null} the row is only updated if it still has that version;
+  * otherwise the new version is read back in a second statement.
+  *
+  * @return the new version, {@code 0} if there is no such customer or it no
+  * longer has the expected version
+  */
+ long updateNames(Long id, String firstName, String lastName,
+  Long expectedVersion);
+
+ /**
+  * Deletes a customer with a single {@code DELETE} statement, without
+  * loading it first.
+  *
+  * @return the number of deleted rows, {@code 0} if there is no such customer
+  */
+ int deleteWithoutLoading(Long id);
+
+ /**
+  * Applies a JSON merge patch (RFC 7396) to a customer with a single
+  * {@code UPDATE} that only sets the columns present in {@code changes} and
+  * increments the version.
+  *
+  * @return the number of updated rows, {@code 0} if there is no such customer
+  */
+ int patch(Long id, Map<String, Object> changes);
+}
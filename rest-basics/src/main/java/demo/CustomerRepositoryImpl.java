@@ -0,0 +1,272 @@
+package demo;
+
+import org.hibernate.Cache;
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.jpa.AvailableSettings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StringUtils;
+
+import javax.persistence.CacheRetrieveMode;
+import javax.persistence.CacheStoreMode;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import java.util.*;
+import java.util.stream.Collectors;
+
+class CustomerRepositoryImpl implements CustomerRepositoryCustom {
+
+ static final List<String> FIELDS = Arrays
+  .asList("id", "firstName", "lastName");
+
+ private static final Map<String, String> COLUMNS = new HashMap<>();
+
+ static {
+  COLUMNS.put("firstName", "first_name");
+  COLUMNS.put("lastName", "last_name");
+ }
+
+ // matches no table, so no second-level cache region is dropped on a write
+ private static final String WRITE_QUERY_SPACE = "customer-writes";
+
+ // keeps IN lists well below the bind parameter limits of common databases
+ private static final int IN_CHUNK_SIZE = 500;
+
+ @PersistenceContext
+ private EntityManager entityManager;
+
+ // bulk statements bypass Hibernate's entity events, so they announce
+ // their changes themselves
+ @Autowired
+ private ApplicationEventPublisher publisher;
+
+ @Override
+ public Optional<CustomerProjection> findFieldsById(Long id,
+  Set<String> fields) {
+  CriteriaBuilder cb = this.entityManager.getCriteriaBuilder();
+  CriteriaQuery<Tuple> query = cb.createTupleQuery();
+  Root<Customer> root = query.from(Customer.class);
+  query.multiselect(selections(root, fields)).where(
+   cb.equal(root.get("id"), id));
+  return this.entityManager.createQuery(query).getResultList().stream()
+   .findFirst().map(CustomerRepositoryImpl::toProjection);
+ }
+
+ @Override
+ public List<CustomerProjection> findFields(Set<String> fields, Long after,
+  Long before, int limit) {
+  CriteriaBuilder cb = this.entityManager.getCriteriaBuilder();
+  CriteriaQuery<Tuple> query = cb.createTupleQuery();
+  Root<Customer> root = query.from(Customer.class);
+  query.multiselect(selections(root, fields));
+  if (before != null) {
+   query.where(cb.lessThan(root.get("id"), before)).orderBy(
+    cb.desc(root.get("id")));
+  }
+  else {
+   query.where(cb.greaterThan(root.get("id"), after == null ? 0L : after))
+    .orderBy(cb.asc(root.get("id")));
+  }
+  List<CustomerProjection> projections = this.entityManager
+   .createQuery(query).setMaxResults(limit).getResultList().stream()
+   .map(CustomerRepositoryImpl::toProjection).collect(Collectors.toList());
+  if (before != null) {
+   Collections.reverse(projections);
+  }
+  return projections;
+ }
+
+ @Override
+ public List<Customer> findByIds(Collection<Long> ids) {
+  List<Long> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+  List<Customer> customers = new ArrayList<>(distinct.size());
+  for (int i = 0; i < distinct.size(); i += IN_CHUNK_SIZE) {
+   List<Long> chunk = distinct.subList(i,
+    Math.min(i + IN_CHUNK_SIZE, distinct.size()));
+   customers.addAll(this.entityManager
+    .createQuery("select c from Customer c where c.id in :ids",
+     Customer.class).setParameter("ids", chunk).getResultList());
+  }
+  return customers;
+ }
+
+ @Override
+ public List<Customer> searchByName(String field, String name,
+  boolean prefix, String afterName, Long afterId, int limit) {
+  if (!field.equals("firstName") && !field.equals("lastName")) {
+   throw new CustomerBadRequestException(String.format("unsearchable-field %s",
+    field));
+  }
+  if (!StringUtils.hasText(name)) {
+   throw new CustomerBadRequestException("empty-name");
+  }
+  CriteriaBuilder cb = this.entityManager.getCriteriaBuilder();
+  CriteriaQuery<Customer> query = cb.createQuery(Customer.class);
+  Root<Customer> root = query.from(Customer.class);
+  Path<String> key = root.get(lowerCased(field));
+  Path<Long> id = root.get("id");
+  String value = Customer.normalize(name);
+  // a LIKE with a constant prefix is still a range scan of the index
+  Predicate where = prefix ? cb.like(key, escapeLike(value) + "%", '\\') : cb
+   .equal(key, value);
+  if (afterId != null) {
+   where = cb.and(where, cb.or(cb.greaterThan(key, afterName),
+    cb.and(cb.equal(key, afterName), cb.greaterThan(id, afterId))));
+  }
+  query.where(where).orderBy(cb.asc(key), cb.asc(id));
+  return this.entityManager.createQuery(query).setMaxResults(limit)
+   .getResultList();
+ }
+
+ @Override
+ @Transactional
+ public long updateNames(Long id, String firstName, String lastName,
+  Long expectedVersion) {
+  String sql = "update customer set first_name = :fn, last_name = :ln, "
+   + "first_name_lower = :fnl, last_name_lower = :lnl, "
+   + "version = version + 1 where id = :id";
+  if (expectedVersion != null) {
+   sql += " and version = :version";
+  }
+  SQLQuery update = write(sql);
+  update.setString("fn", firstName).setString("ln", lastName)
+   .setString("fnl", Customer.normalize(firstName))
+   .setString("lnl", Customer.normalize(lastName)).setLong("id", id);
+  if (expectedVersion != null) {
+   update.setLong("version", expectedVersion);
+  }
+  if (update.executeUpdate() == 0) {
+   return 0;
+  }
+  // the row stays locked until the commit, so this is the version just written
+  long version = (expectedVersion != null) ? expectedVersion + 1
+   : ((Number) this.entityManager
+    .createNativeQuery("select version from customer where id = :id")
+    .setParameter("id", id).getSingleResult()).longValue();
+  evict(id);
+  this.publisher.publishEvent(CustomerChangedEvent.updated(id, version,
+   firstName, lastName));
+  return version;
+ }
+
+ @Override
+ @Transactional
+ public int deleteWithoutLoading(Long id) {
+  int deleted = write("delete from customer where id = :id").setLong("id", id)
+   .executeUpdate();
+  if (deleted > 0) {
+   evict(id);
+   this.publisher.publishEvent(CustomerChangedEvent.deleted(id));
+  }
+  return deleted;
+ }
+
+ @Override
+ @Transactional
+ public int patch(Long id, Map<String, Object> changes) {
+  if (changes.isEmpty()) {
+   throw new CustomerBadRequestException("empty-patch");
+  }
+  StringBuilder sql = new StringBuilder("update customer set ");
+  changes.forEach((field, value) -> {
+   if (!FIELDS.contains(field) || field.equals("id")) {
+    throw new CustomerBadRequestException(String.format(
+     "unknown-or-immutable-field %s", field));
+   }
+   if (value != null && !(value instanceof String)) {
+    throw new CustomerBadRequestException(String.format(
+     "field %s must be a string or null", field));
+   }
+   sql.append(String.format("%1$s = :%2$s, %1$s_lower = :%2$sLower, ",
+    COLUMNS.get(field), field));
+  });
+  sql.append("version = version + 1 where id = :id");
+  SQLQuery update = write(sql.toString());
+  changes.forEach((field, value) -> update.setString(field, (String) value)
+   .setString(lowerCased(field), Customer.normalize((String) value)));
+  int updated = update.setLong("id", id).executeUpdate();
+  if (updated > 0) {
+   evict(id);
+   // a patch may leave a name as it was, so the customer is read back, past
+   // the second-level cache; the response is then served from the
+   // persistence context
+   Map<String, Object> bypass = new HashMap<>();
+   bypass.put(AvailableSettings.SHARED_CACHE_RETRIEVE_MODE, CacheRetrieveMode.BYPASS);
+   bypass.put(AvailableSettings.SHARED_CACHE_STORE_MODE, CacheStoreMode.BYPASS);
+   Customer customer = this.entityManager.find(Customer.class, id, bypass);
+   this.publisher.publishEvent(CustomerChangedEvent.saved(customer));
+  }
+  return updated;
+ }
+
+ // a JPQL or native statement without query spaces makes Hibernate drop the
+ // whole Customer region of the second-level cache; on a query space of its
+ // own, a write leaves the region alone and evicts just its customer
+ private SQLQuery write(String sql) {
+  return this.entityManager.unwrap(Session.class).createSQLQuery(sql)
+   .addSynchronizedQuerySpace(WRITE_QUERY_SPACE);
+ }
+
+ // once now, for reads later in this transaction, and once more after it
+ // ends, in case another transaction cached the old row in the meantime
+ private void evict(Long id) {
+  Cache cache = this.entityManager.getEntityManagerFactory()
+   .unwrap(SessionFactory.class).getCache();
+  Runnable eviction = () -> {
+   cache.evictEntity(Customer.class, id);
+   cache.evictQueryRegion(CustomerRepository.NAME_QUERY_REGION);
+  };
+  eviction.run();
+  TransactionSynchronizationManager
+   .registerSynchronization(new TransactionSynchronizationAdapter() {
+
+    @Override
+    public void afterCompletion(int status) {
+     eviction.run();
+    }
+   });
+ }
+
+ // the lower-cased copy of a name field, see Customer#normalizeNames()
+ private static String lowerCased(String field) {
+  return field + "Lower";
+ }
+
+ private static String escapeLike(String value) {
+  return value.replace("\\", "\\\\").replace("%", "\\%")
+   .replace("_", "\\_");
+ }
+
+ private static List<Selection<?>> selections(Root<Customer> root,
+  Set<String> fields) {
+  if (!FIELDS.containsAll(fields)) {
+   throw new CustomerBadRequestException(String.format(
+    "unknown-fields %s, expected some of %s", fields, FIELDS));
+  }
+  // the id is always selected: it is needed for links and cursors
+  return FIELDS.stream()
+   .filter(field -> field.equals("id") || fields.contains(field))
+   .<Selection<?>> map(field -> root.get(field).alias(field))
+   .collect(Collectors.toList());
+ }
+
+ private static CustomerProjection toProjection(Tuple tuple) {
+  Map<String, Object> values = new HashMap<>();
+  tuple.getElements().forEach(
+   element -> values.put(element.getAlias(), tuple.get(element)));
+  return new CustomerProjection((Long) values.get("id"),
+   (String) values.get("firstName"), (String) values.get("lastName"));
+ }
+}
@@ -0,0 +1,258 @@
+package demo;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the encoded bytes of single-customer representations (v1 JSON, v2 HAL
+ * and protobuf) so that a repeated {@code GET} can be answered without loading
+ * the entity or running a serializer. Entries are keyed by id, {@code @Version},
+ * media type and a variant (API version, plus the base URL for
+ * representations with absolute links), evicted least-recently-used once
+ * {@code customers.representation-cache.max-bytes} is exceeded, and dropped
+ * on every {@link CustomerChangedEvent}.
+ */
+@Component
+class CustomerRepresentationCache implements PublicMetrics {
+
+ private final long maxBytes;
+
+ private final int gzipMinBytes;
+
+ private final AtomicLong hits = new AtomicLong();
+
+ private final AtomicLong misses = new AtomicLong();
+
+ // guarded by "this"
+ private final LinkedHashMap<Key, CachedRepresentation> entries = new LinkedHashMap<>(
+  256, 0.75f, true);
+
+ // guarded by "this"
+ private final Map<Long, Set<Key>> keysById = new HashMap<>();
+
+ // guarded by "this"
+ private long bytes;
+
+ @Autowired
+ CustomerRepresentationCache(
+  @Value("${customers.representation-cache.max-bytes:16777216}") long maxBytes,
+  @Value("${customers.representation-cache.gzip-min-bytes:1024}") int gzipMinBytes) {
+  this.maxBytes = maxBytes;
+  this.gzipMinBytes = gzipMinBytes;
+ }
+
+ /**
+  * @return the cached representation of the given version, if any. Nothing is
+  * ever cached for an unknown ({@code null}) version.
+  */
+ Optional<CachedRepresentation> get(Long id, Long version, MediaType mediaType,
+  String variant) {
+  CachedRepresentation representation = null;
+  if (version != null) {
+   Key key = new Key(id, version, mediaType, variant);
+   synchronized (this) {
+    representation = this.entries.get(key);
+   }
+  }
+  (representation == null ? this.misses : this.hits).incrementAndGet();
+  return Optional.ofNullable(representation);
+ }
+
+ /**
+  * Wraps freshly encoded bytes, pre-compressing them if they are large enough
+  * to be worth it, and caches them if the entity's version is known.
+  */
+ CachedRepresentation put(Long id, Long version, MediaType mediaType,
+  String variant, byte[] body) {
+  byte[] gzipped = body.length >= this.gzipMinBytes ? gzip(body) : null;
+  CachedRepresentation representation = new CachedRepresentation(version,
+   mediaType, body, gzipped);
+  if (version == null || representation.size() > this.maxBytes) {
+   return representation;
+  }
+  Key key = new Key(id, version, mediaType, variant);
+  synchronized (this) {
+   CachedRepresentation previous = this.entries.put(key, representation);
+   if (previous != null) {
+    this.bytes -= previous.size();
+   }
+   this.bytes += representation.size();
+   this.keysById.computeIfAbsent(id, k -> new HashSet<>()).add(key);
+   Iterator<Map.Entry<Key, CachedRepresentation>> eldest = this.entries
+    .entrySet().iterator();
+   while (this.bytes > this.maxBytes && eldest.hasNext()) {
+    Map.Entry<Key, CachedRepresentation> entry = eldest.next();
+    eldest.remove();
+    this.bytes -= entry.getValue().size();
+    forget(entry.getKey());
+   }
+  }
+  return representation;
+ }
+
+ @TransactionalEventListener(fallbackExecution = true)
+ public void changed(CustomerChangedEvent event) {
+  evict(event.getId());
+ }
+
+ synchronized void evict(Long id) {
+  Set<Key> keys = this.keysById.remove(id);
+  if (keys != null) {
+   for (Key key : keys) {
+    CachedRepresentation removed = this.entries.remove(key);
+    if (removed != null) {
+     this.bytes -= removed.size();
+    }
+   }
+  }
+ }
+
+ @Override
+ public Collection<Metric<?>> metrics() {
+  long size;
+  int count;
+  synchronized (this) {
+   size = this.bytes;
+   count = this.entries.size();
+  }
+  return Arrays.asList(
+   new Metric<>("customers.representation-cache.hits", this.hits.get()),
+   new Metric<>("customers.representation-cache.misses", this.misses.get()),
+   new Metric<>("customers.representation-cache.entries", count),
+   new Metric<>("customers.representation-cache.bytes", size));
+ }
+
+ private void forget(Key key) {
+  Set<Key> keys = this.keysById.get(key.id);
+  if (keys != null && keys.remove(key) && keys.isEmpty()) {
+   this.keysById.remove(key.id);
+  }
+ }
+
+ private static byte[] gzip(byte[] body) {
+  ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2);
+  try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+   gzip.write(body);
+  }
+  catch (IOException e) {
+   throw new UncheckedIOException(e);
+  }
+  return out.toByteArray();
+ }
+
+ /**
+  * Encoded bytes of one representation, plus a gzipped copy if one was made.
+  */
+ static class CachedRepresentation {
+
+  private final Long version;
+
+  private final MediaType mediaType;
+
+  private final byte[] body;
+
+  private final byte[] gzipped;
+
+  CachedRepresentation(Long version, MediaType mediaType, byte[] body,
+   byte[] gzipped) {
+   this.version = version;
+   this.mediaType = mediaType;
+   this.body = body;
+   this.gzipped = gzipped;
+  }
+
+  long size() {
+   return this.body.length + (this.gzipped == null ? 0 : this.gzipped.length);
+  }
+
+  ResponseEntity<byte[]> toResponse(String acceptEncoding) {
+   return toResponse(acceptEncoding, new HttpHeaders());
+  }
+
+  ResponseEntity<byte[]> toResponse(String acceptEncoding, HttpHeaders extra) {
+   HttpHeaders headers = new HttpHeaders();
+   headers.putAll(extra);
+   headers.setContentType(this.mediaType);
+   if (this.gzipped == null) {
+    headers.putAll(CustomerVersions.eTagHeaders(this.version));
+    return ResponseEntity.ok().headers(headers).body(this.body);
+   }
+   headers.setVary(Collections.singletonList(HttpHeaders.ACCEPT_ENCODING));
+   if (!acceptsGzip(acceptEncoding)) {
+    headers.putAll(CustomerVersions.eTagHeaders(this.version));
+    return ResponseEntity.ok().headers(headers).body(this.body);
+   }
+   // a strong ETag must not be shared by two encodings of the same version
+   if (this.version != null) {
+    headers.setETag("W/" + CustomerVersions.eTag(this.version));
+   }
+   headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+   return ResponseEntity.ok().headers(headers).body(this.gzipped);
+  }
+
+  private static boolean acceptsGzip(String acceptEncoding) {
+   if (acceptEncoding == null) {
+    return false;
+   }
+   for (String coding : StringUtils.commaDelimitedListToStringArray(acceptEncoding)) {
+    String[] parts = coding.trim().split(";");
+    String name = parts[0].trim();
+    if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+     return parts.length == 1 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+    }
+   }
+   return false;
+  }
+ }
+
+ private static class Key {
+
+  private final Long id;
+
+  private final Long version;
+
+  private final MediaType mediaType;
+
+  private final String variant;
+
+  Key(Long id, Long version, MediaType mediaType, String variant) {
+   this.id = id;
+   this.version = version;
+   this.mediaType = mediaType;
+   this.variant = variant;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+   if (this == o) {
+    return true;
+   }
+   if (!(o instanceof Key)) {
+    return false;
+   }
+   Key key = (Key) o;
+   return id.equals(key.id) && version.equals(key.version)
+    && mediaType.equals(key.mediaType) && variant.equals(key.variant);
+  }
+
+  @Override
+  public int hashCode() {
+   return Objects.hash(id, version, mediaType, variant);
+  }
+ }
+}
@@ -1,34 +1,47 @@
 package demo;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.hateoas.Link;
 import org.springframework.hateoas.Resource;
 import org.springframework.hateoas.ResourceAssembler;
 import org.springframework.stereotype.Component;
-import org.springframework.web.servlet.mvc.method.annotation
-        .MvcUriComponentsBuilder;
-
-import java.net.URI;
 
 @Component
 class CustomerResourceAssembler implements
  ResourceAssembler<Customer, Resource<Customer>> {
 
+ private final CustomerLinks customerLinks;
+
+ @Autowired
+ CustomerResourceAssembler(CustomerLinks customerLinks) {
+  this.customerLinks = customerLinks;
+ }
+
  @Override
  public Resource<Customer> toResource(Customer customer) {
 
+  FlightRecorderEvents.RepresentationMapping event = FlightRecorderEvents.RepresentationMapping
+   .begin("hal", customer.getId());
   Resource<Customer> customerResource = new Resource<>(customer);//<1>
-  URI photoUri = MvcUriComponentsBuilder
-   .fromMethodCall(
-    MvcUriComponentsBuilder.on(CustomerProfilePhotoRestController.class).read(
-     customer.getId())).buildAndExpand().toUri();
-
-  URI selfUri = MvcUriComponentsBuilder
-   .fromMethodCall(
-    MvcUriComponentsBuilder.on(CustomerHypermediaRestController.class).get(
-     customer.getId())).buildAndExpand().toUri();
-
-  customerResource.add(new Link(selfUri.toString(), "self"));
-  customerResource.add(new Link(photoUri.toString(), "profile-photo"));
+  addLinks(customerResource, customer.getId());
+  event.commit();
   return customerResource;
  }
+
+ public Resource<CustomerProjection> toResource(CustomerProjection customer) {
+  FlightRecorderEvents.RepresentationMapping event = FlightRecorderEvents.RepresentationMapping
+   .begin("hal", customer.getId());
+  Resource<CustomerProjection> customerResource = new Resource<>(customer);
+  addLinks(customerResource, customer.getId());
+  event.commit();
+  return customerResource;
+ }
+
+ // called for every element of a page, so the links come from precompiled
+ // templates rather than from MvcUriComponentsBuilder.fromMethodCall(..)
+ private void addLinks(Resource<?> customerResource, Long id) {
+  customerResource.add(new Link(this.customerLinks.v2Customer(id), "self"));
+  customerResource.add(new Link(this.customerLinks.profilePhoto(id),
+   "profile-photo"));
+ }
 }
@@ -1,22 +1,63 @@
 package demo;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.servlet.mvc.method.annotation.MvcUriComponentsBuilder;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/v1/customers")
 public class CustomerRestController {
 
+ public static final String MERGE_PATCH_JSON_VALUE = "application/merge-patch+json";
+
+ public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
  @Autowired
  private CustomerRepository customerRepository;
 
+ @Autowired
+ private CustomerVersions customerVersions;
+
+ @Autowired
+ private CustomerRepresentationCache representationCache;
+
+ @Autowired
+ private ObjectMapper objectMapper;
+
+ @Autowired
+ private CustomerNameIndex customerNameIndex;
+
+ @Autowired
+ private CustomerSearchIndex customerSearchIndex;
+
+ @Autowired
+ private CustomerLinks customerLinks;
+
+ @Value("${customers.page.max-size:100}")
+ private int maxPageSize;
+
+ @Value("${customers.suggest.max-results:10}")
+ private int maxSuggestions;
+
  // <1>
  @RequestMapping(method = RequestMethod.OPTIONS)
  ResponseEntity<?> options() {
@@ -26,20 +67,162 @@ public class CustomerRestController {
    .ok()
    .allow(HttpMethod.GET, HttpMethod.POST,
           HttpMethod.HEAD, HttpMethod.OPTIONS,
-          HttpMethod.PUT, HttpMethod.DELETE)
+          HttpMethod.PUT, HttpMethod.PATCH,
+          HttpMethod.DELETE)
           .build();
    //@formatter:on
  }
 
  @GetMapping
- ResponseEntity<Collection<Customer>> getCollection() {
-  return ResponseEntity.ok(this.customerRepository.findAll());
+ ResponseEntity<Collection<Customer>> getCollection(
+  @RequestParam(defaultValue = "0") Long after,
+  @RequestParam(required = false) Integer limit) {
+  int pageSize = pageSize(limit);
+  // fetch one extra row to find out whether there is a next page
+  List<Customer> customers = this.customerRepository
+   .findByIdGreaterThanOrderByIdAsc(after, new PageRequest(0, pageSize + 1));
+  return page(customers, pageSize, Customer::getId);
+ }
+
+ @GetMapping(params = "fields")
+ ResponseEntity<Collection<CustomerProjection>> getCollectionFields(
+  @RequestParam Set<String> fields,
+  @RequestParam(defaultValue = "0") Long after,
+  @RequestParam(required = false) Integer limit) {
+  int pageSize = pageSize(limit);
+  List<CustomerProjection> customers = this.customerRepository.findFields(
+   fields, after, null, pageSize + 1);
+  return page(customers, pageSize, CustomerProjection::getId);
+ }
+
+ // type-ahead: answered from memory, without a database round trip
+ @GetMapping("/suggest")
+ ResponseEntity<Collection<CustomerProjection>> suggest(@RequestParam String q,
+  @RequestParam(required = false) Integer limit) {
+  int max = (limit == null) ? this.maxSuggestions : Math.max(1,
+   Math.min(limit, this.maxSuggestions));
+  return ResponseEntity.ok(this.customerNameIndex.suggest(q, max));
+ }
+
+ // ranked by relevance, so paged by offset rather than by a cursor
+ @GetMapping("/fulltext")
+ ResponseEntity<Collection<CustomerProjection>> fullText(@RequestParam String q,
+  @RequestParam(defaultValue = "0") int page,
+  @RequestParam(required = false) Integer limit) {
+  if (page < 0) {
+   throw new CustomerBadRequestException("negative-page " + page);
+  }
+  int pageSize = pageSize(limit);
+  Page<CustomerProjection> results = this.customerSearchIndex.search(q,
+   new PageRequest(page, pageSize));
+  HttpHeaders headers = new HttpHeaders();
+  headers.set(TOTAL_COUNT_HEADER, Long.toString(results.getTotalElements()));
+  if (results.hasNext()) {
+   String next = ServletUriComponentsBuilder.fromCurrentRequest()
+    .replaceQueryParam("page", page + 1)
+    .replaceQueryParam("limit", pageSize).toUriString();
+   headers.add(HttpHeaders.LINK, String.format("<%s>; rel=\"next\"", next));
+  }
+  return ResponseEntity.ok().headers(headers).body(results.getContent());
+ }
+
+ // exactly one of firstName and lastName; the cursor is "<id>:<lower-cased name>"
+ @GetMapping("/search")
+ ResponseEntity<Collection<Customer>> search(
+  @RequestParam(required = false) String firstName,
+  @RequestParam(required = false) String lastName,
+  @RequestParam(defaultValue = "false") boolean prefix,
+  @RequestParam(required = false) String after,
+  @RequestParam(required = false) Integer limit) {
+  if ((firstName == null) == (lastName == null)) {
+   throw new CustomerBadRequestException(
+    "expected exactly one of firstName and lastName");
+  }
+  String field = (firstName != null) ? "firstName" : "lastName";
+  Function<Customer, String> name = (firstName != null) ? Customer::getFirstName
+   : Customer::getLastName;
+  Long afterId = null;
+  String afterName = null;
+  if (after != null) {
+   int separator = after.indexOf(':');
+   try {
+    afterId = Long.valueOf(after.substring(0, Math.max(separator, 0)));
+   }
+   catch (NumberFormatException e) {
+    throw new CustomerBadRequestException("malformed-cursor " + after);
+   }
+   afterName = after.substring(separator + 1);
+  }
+  int pageSize = pageSize(limit);
+  List<Customer> customers = this.customerRepository.searchByName(field,
+   (firstName != null) ? firstName : lastName, prefix, afterName, afterId,
+   pageSize + 1);
+  return page(customers, pageSize,
+   c -> c.getId() + ":" + Customer.normalize(name.apply(c)));
+ }
+
+ @GetMapping(params = "ids")
+ ResponseEntity<CustomerMultiGet> getByIds(@RequestParam List<Long> ids) {
+  return ResponseEntity.ok(CustomerMultiGet.of(ids,
+   this.customerRepository.findByIds(ids)));
  }
 
  // <2>
  @GetMapping(value = "/{id}")
- ResponseEntity<Customer> get(@PathVariable Long id) {
-  return this.customerRepository.findById(id).map(ResponseEntity::ok)
+ ResponseEntity<byte[]> get(@PathVariable Long id,
+  @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+  @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+  Long version = this.customerVersions.current(id);
+  if (CustomerVersions.matches(ifNoneMatch, version)) {
+   return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+    .headers(CustomerVersions.eTagHeaders(version)).build();
+  }
+  // serve the encoded bytes from the cache, encoding them only on a miss
+  return this.representationCache
+   .get(id, version, MediaType.APPLICATION_JSON_UTF8, "v1")
+   .orElseGet(
+    () -> this.customerRepository
+     .findById(id)
+     .map(
+      c -> this.representationCache.put(c.getId(), c.getVersion(),
+       MediaType.APPLICATION_JSON_UTF8, "v1", this.toJson(c)))
+     .orElseThrow(() -> new CustomerNotFoundException(id)))
+   .toResponse(acceptEncoding);
+ }
+
+ // JSONP wraps the body in a callback, so it can't be served from the cache
+ @GetMapping(value = "/{id}", params = "callback")
+ ResponseEntity<Customer> getJsonp(@PathVariable Long id) {
+  return this.customerRepository
+   .findById(id)
+   .map(
+    c -> ResponseEntity.ok().headers(CustomerVersions.eTagHeaders(c.getVersion()))
+     .body(c)).orElseThrow(() -> new CustomerNotFoundException(id));
+ }
+
+ private byte[] toJson(Customer customer) {
+  FlightRecorderEvents.MessageConversion event = FlightRecorderEvents.MessageConversion
+   .begin(customer.getId());
+  try {
+   byte[] json = this.objectMapper.writeValueAsBytes(customer);
+   event.bytes = json.length;
+   return json;
+  }
+  catch (JsonProcessingException e) {
+   throw new UncheckedIOException(e);
+  }
+  finally {
+   event.mediaType = MediaType.APPLICATION_JSON_UTF8_VALUE;
+   event.type = Customer.class.getName();
+   event.commit();
+  }
+ }
+
+ @GetMapping(value = "/{id}", params = "fields")
+ ResponseEntity<CustomerProjection> getFields(@PathVariable Long id,
+  @RequestParam Set<String> fields) {
+  return this.customerRepository.findFieldsById(id, fields)
+   .map(ResponseEntity::ok)
    .orElseThrow(() -> new CustomerNotFoundException(id));
  }
 
@@ -49,18 +232,28 @@ public class CustomerRestController {
   Customer customer = this.customerRepository.save(new Customer(c
    .getFirstName(), c.getLastName()));
 
-  URI uri = MvcUriComponentsBuilder.fromController(getClass()).path("/{id}")
-   .buildAndExpand(customer.getId()).toUri();
+  URI uri = URI.create(this.customerLinks.v1Customer(customer.getId()));
   return ResponseEntity.created(uri).body(customer);
  }
 
+ @PostMapping("/batch")
+ ResponseEntity<List<Long>> postBatch(@RequestBody List<Customer> customers) {
+  List<Customer> toSave = customers.stream()
+   .map(c -> new Customer(c.getFirstName(), c.getLastName()))
+   .collect(Collectors.toList());
+  // one transaction, with the inserts grouped into JDBC batches
+  List<Long> ids = this.customerRepository.save(toSave).stream()
+   .map(Customer::getId).collect(Collectors.toList());
+  return ResponseEntity.status(HttpStatus.CREATED).body(ids);
+ }
+
  // <4>
  @DeleteMapping(value = "/{id}")
  ResponseEntity<?> delete(@PathVariable Long id) {
-  return this.customerRepository.findById(id).map(c -> {
-   customerRepository.delete(c);
-   return ResponseEntity.noContent().build();
-  }).orElseThrow(() -> new CustomerNotFoundException(id));
+  if (this.customerRepository.deleteWithoutLoading(id) == 0) {
+   throw new CustomerNotFoundException(id);
+  }
+  return ResponseEntity.noContent().build();
  }
 
  // <5>
@@ -73,17 +266,50 @@ public class CustomerRestController {
 
  // <6>
  @PutMapping(value = "/{id}")
- ResponseEntity<Customer> put(@PathVariable Long id, @RequestBody Customer c) {
-  return this.customerRepository
-   .findById(id)
-   .map(
-    existing -> {
-     Customer customer = this.customerRepository.save(new Customer(existing
-      .getId(), c.getFirstName(), c.getLastName()));
-     URI selfLink = URI.create(ServletUriComponentsBuilder.fromCurrentRequest()
-      .toUriString());
-     return ResponseEntity.created(selfLink).body(customer);
-    }).orElseThrow(() -> new CustomerNotFoundException(id));
+ ResponseEntity<Customer> put(@PathVariable Long id, @RequestBody Customer c,
+  @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+  Long expected = CustomerVersions.expectedVersion(ifMatch);
+  long version = this.customerRepository.updateNames(id, c.getFirstName(),
+   c.getLastName(), expected);
+  if (version == 0) {
+   if (expected != null && this.customerRepository.exists(id)) {
+    throw new CustomerPreconditionFailedException(id);
+   }
+   throw new CustomerNotFoundException(id);
+  }
+  URI selfLink = URI.create(ServletUriComponentsBuilder.fromCurrentRequest()
+   .toUriString());
+  return ResponseEntity.created(selfLink)
+   .headers(CustomerVersions.eTagHeaders(version))
+   .body(new Customer(id, c.getFirstName(), c.getLastName()));
+ }
+
+ @PatchMapping(value = "/{id}", consumes = MERGE_PATCH_JSON_VALUE)
+ ResponseEntity<Customer> patch(@PathVariable Long id,
+  @RequestBody Map<String, Object> patch) {
+  if (!patch.isEmpty() && this.customerRepository.patch(id, patch) == 0) {
+   throw new CustomerNotFoundException(id);
+  }
+  return this.customerRepository.findById(id).map(ResponseEntity::ok)
+   .orElseThrow(() -> new CustomerNotFoundException(id));
+ }
+
+ private int pageSize(Integer limit) {
+  return (limit == null) ? this.maxPageSize : Math.max(1,
+   Math.min(limit, this.maxPageSize));
+ }
 
+ private <T> ResponseEntity<Collection<T>> page(List<T> rows, int pageSize,
+  Function<T, ?> cursor) {
+  if (rows.size() <= pageSize) {
+   return ResponseEntity.ok(rows);
+  }
+  List<T> page = rows.subList(0, pageSize);
+  String next = ServletUriComponentsBuilder.fromCurrentRequest()
+   .replaceQueryParam("after", cursor.apply(page.get(pageSize - 1)))
+   .replaceQueryParam("limit", pageSize).toUriString();
+  return ResponseEntity.ok()
+   .header(HttpHeaders.LINK, String.format("<%s>; rel=\"next\"", next))
+   .body(page);
  }
 }
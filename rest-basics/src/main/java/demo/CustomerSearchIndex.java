@@ -0,0 +1,237 @@
+package demo;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.RAMDirectory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory Lucene index of customer names for full-text search. Names are
+ * tokenized and lower-cased by the {@link StandardAnalyzer}; each query term
+ * matches a name term exactly, as a prefix or within a small edit distance,
+ * in decreasing order of relevance. The index is loaded once the application
+ * is ready and then follows every {@link CustomerChangedEvent}; changes become
+ * searchable at the next refresh, every
+ * {@code customers.fulltext.refresh-interval} milliseconds.
+ */
+@Component
+class CustomerSearchIndex {
+
+ private static final String ID = "id", FIRST_NAME = "firstName",
+  LAST_NAME = "lastName";
+
+ private final Log log = LogFactory.getLog(getClass());
+
+ private final Analyzer analyzer = new StandardAnalyzer();
+
+ private final IndexWriter indexWriter;
+
+ private final SearcherManager searcherManager;
+
+ private final ScheduledExecutorService refresher = Executors
+  .newSingleThreadScheduledExecutor(r -> {
+   Thread thread = new Thread(r, "customer-search-refresh");
+   thread.setDaemon(true);
+   return thread;
+  });
+
+ private final CustomerBulkOperations customerBulkOperations;
+
+ private final int maxResultWindow;
+
+ // the changes committed while the initial load runs, applied once it is
+ // done so that the load can't overwrite them with what it read earlier;
+ // null afterwards, guarded by "this"
+ private List<CustomerChangedEvent> pending = new ArrayList<>();
+
+ @Autowired
+ CustomerSearchIndex(CustomerBulkOperations customerBulkOperations,
+  @Value("${customers.fulltext.refresh-interval:1000}") long refreshInterval,
+  @Value("${customers.fulltext.max-result-window:1000}") int maxResultWindow)
+  throws IOException {
+  this.customerBulkOperations = customerBulkOperations;
+  this.maxResultWindow = maxResultWindow;
+  this.indexWriter = new IndexWriter(new RAMDirectory(), new IndexWriterConfig(
+   this.analyzer));
+  this.searcherManager = new SearcherManager(this.indexWriter, null);
+  this.refresher.scheduleWithFixedDelay(this::refresh, refreshInterval,
+   refreshInterval, TimeUnit.MILLISECONDS);
+ }
+
+ @EventListener(ApplicationReadyEvent.class)
+ public void load() throws IOException {
+  long start = System.currentTimeMillis();
+  long count;
+  try {
+   count = this.customerBulkOperations.export(this::index);
+  }
+  finally {
+   synchronized (this) {
+    for (CustomerChangedEvent event : this.pending) {
+     apply(event);
+    }
+    this.pending = null;
+   }
+  }
+  refresh();
+  log.info(String.format("indexed %s customers for full-text search in %sms",
+   count, System.currentTimeMillis() - start));
+ }
+
+ /**
+  * Ranks the customers whose first or last name matches every term of
+  * {@code text}. Only the first {@code customers.fulltext.max-result-window}
+  * hits can be paged through.
+  */
+ Page<CustomerProjection> search(String text, Pageable pageable) {
+  // in longs, a page number far out must not overflow into the window
+  if ((long) pageable.getPageNumber() * pageable.getPageSize()
+   + pageable.getPageSize() > this.maxResultWindow) {
+   throw new CustomerBadRequestException(String.format(
+    "result-window-too-large, at most %s hits can be paged",
+    this.maxResultWindow));
+  }
+  Query query = query(text);
+  try {
+   IndexSearcher searcher = this.searcherManager.acquire();
+   try {
+    TopDocs top = searcher.search(query,
+     pageable.getOffset() + pageable.getPageSize());
+    List<CustomerProjection> customers = new ArrayList<>();
+    for (int i = pageable.getOffset(); i < top.scoreDocs.length; i++) {
+     Document document = searcher.doc(top.scoreDocs[i].doc);
+     customers.add(new CustomerProjection(Long.valueOf(document.get(ID)),
+      document.get(FIRST_NAME), document.get(LAST_NAME)));
+    }
+    return new PageImpl<>(customers, pageable, top.totalHits);
+   }
+   finally {
+    this.searcherManager.release(searcher);
+   }
+  }
+  catch (IOException e) {
+   throw new UncheckedIOException(e);
+  }
+ }
+
+ @TransactionalEventListener(fallbackExecution = true)
+ public void changed(CustomerChangedEvent event) throws IOException {
+  synchronized (this) {
+   if (this.pending != null) {
+    this.pending.add(event);
+    return;
+   }
+  }
+  apply(event);
+ }
+
+ void refresh() {
+  try {
+   this.searcherManager.maybeRefresh();
+  }
+  catch (IOException e) {
+   log.warn("could not refresh the customer search index", e);
+  }
+ }
+
+ @PreDestroy
+ public void close() throws IOException {
+  this.refresher.shutdownNow();
+  this.searcherManager.close();
+  this.indexWriter.close();
+ }
+
+ private void apply(CustomerChangedEvent event) throws IOException {
+  if (event.isDeleted()) {
+   this.indexWriter.deleteDocuments(new Term(ID, event.getId().toString()));
+  }
+  else {
+   index(event.getId(), event.getFirstName(), event.getLastName());
+  }
+ }
+
+ private void index(Customer customer) throws IOException {
+  index(customer.getId(), customer.getFirstName(), customer.getLastName());
+ }
+
+ private void index(Long id, String firstName, String lastName)
+  throws IOException {
+  Document document = new Document();
+  document.add(new StringField(ID, id.toString(), Field.Store.YES));
+  if (firstName != null) {
+   document.add(new TextField(FIRST_NAME, firstName, Field.Store.YES));
+  }
+  if (lastName != null) {
+   document.add(new TextField(LAST_NAME, lastName, Field.Store.YES));
+  }
+  this.indexWriter.updateDocument(new Term(ID, id.toString()), document);
+ }
+
+ // every term must match one of the names: exactly (best), as a prefix or
+ // with a typo or two (worst)
+ private Query query(String text) {
+  List<String> terms = analyze(text);
+  if (terms.isEmpty()) {
+   throw new CustomerBadRequestException("empty-query");
+  }
+  BooleanQuery.Builder query = new BooleanQuery.Builder();
+  for (String term : terms) {
+   BooleanQuery.Builder anyName = new BooleanQuery.Builder();
+   for (String field : new String[] { FIRST_NAME, LAST_NAME }) {
+    Term t = new Term(field, term);
+    anyName.add(new BoostQuery(new TermQuery(t), 3f), BooleanClause.Occur.SHOULD);
+    anyName.add(new BoostQuery(new PrefixQuery(t), 2f),
+     BooleanClause.Occur.SHOULD);
+    anyName.add(new FuzzyQuery(t, term.length() > 4 ? 2 : 1),
+     BooleanClause.Occur.SHOULD);
+   }
+   query.add(anyName.build(), BooleanClause.Occur.MUST);
+  }
+  return query.build();
+ }
+
+ private List<String> analyze(String text) {
+  List<String> terms = new ArrayList<>();
+  try (TokenStream tokens = this.analyzer.tokenStream(FIRST_NAME, text)) {
+   CharTermAttribute term = tokens.addAttribute(CharTermAttribute.class);
+   tokens.reset();
+   while (tokens.incrementToken()) {
+    terms.add(term.toString());
+   }
+   tokens.end();
+  }
+  catch (IOException e) {
+   throw new UncheckedIOException(e);
+  }
+  return terms;
+ }
+}
@@ -0,0 +1,134 @@
+package demo;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.StringUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the {@code @Version} of the most recently written or revalidated
+ * customers, at most {@code customers.versions.max-size} of them, so that most
+ * {@code If-None-Match} revalidations can be answered without loading the
+ * entity. Only committed writes made through this instance's
+ * {@link CustomerRepository} update the map; on a miss the version is read
+ * with a single-column query.
+ */
+@Component
+class CustomerVersions {
+
+ private final CustomerRepository customerRepository;
+
+ // guarded by "this", least-recently-used first
+ private final LinkedHashMap<Long, Long> versions;
+
+ // counts the committed writes, so that a version read concurrently with one
+ // of them is not remembered
+ private final AtomicLong writes = new AtomicLong();
+
+ @Autowired
+ CustomerVersions(CustomerRepository customerRepository,
+  @Value("${customers.versions.max-size:10000}") int maxSize) {
+  this.customerRepository = customerRepository;
+  this.versions = new LinkedHashMap<Long, Long>(256, 0.75f, true) {
+
+   @Override
+   protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+    return size() > maxSize;
+   }
+  };
+ }
+
+ /**
+  * @return the current version of the customer, or {@code null} if there is
+  * no such customer
+  */
+ Long current(Long id) {
+  synchronized (this) {
+   Long version = this.versions.get(id);
+   if (version != null) {
+    return version;
+   }
+  }
+  long writes = this.writes.get();
+  Long version = this.customerRepository.findVersionById(id);
+  synchronized (this) {
+   if (version != null && this.writes.get() == writes) {
+    this.versions.putIfAbsent(id, version);
+   }
+  }
+  return version;
+ }
+
+ @TransactionalEventListener(fallbackExecution = true)
+ public void changed(CustomerChangedEvent event) {
+  synchronized (this) {
+   this.writes.incrementAndGet();
+   if (event.isDeleted() || event.getVersion() == null) {
+    this.versions.remove(event.getId());
+   }
+   else {
+    this.versions.merge(event.getId(), event.getVersion(), Math::max);
+   }
+  }
+ }
+
+ static String eTag(Long version) {
+  return "\"" + version + "\"";
+ }
+
+ static HttpHeaders eTagHeaders(Long version) {
+  HttpHeaders headers = new HttpHeaders();
+  if (version != null) {
+   headers.setETag(eTag(version));
+  }
+  return headers;
+ }
+
+ /**
+  * @return whether an {@code If-None-Match} or {@code If-Match} header lists
+  * the ETag of {@code version}
+  */
+ static boolean matches(String header, Long version) {
+  if (header == null || version == null) {
+   return false;
+  }
+  String eTag = eTag(version);
+  for (String candidate : StringUtils.commaDelimitedListToStringArray(header)) {
+   candidate = candidate.trim();
+   if (candidate.equals("*") || candidate.equals(eTag)
+    || candidate.equals("W/" + eTag)) {
+    return true;
+   }
+  }
+  return false;
+ }
+
+ /**
+  * @return the version named by a single-valued {@code If-Match} header, or
+  * {@code null} if there is no such header or it is {@code *}
+  */
+ static Long expectedVersion(String ifMatch) {
+  if (ifMatch == null || ifMatch.trim().equals("*")) {
+   return null;
+  }
+  String value = ifMatch.trim();
+  try {
+   // If-Match uses the strong comparison, so weak ETags never match
+   if (!value.startsWith("W/")) {
+    return Long.parseLong(StringUtils.trimTrailingCharacter(
+     StringUtils.trimLeadingCharacter(value, '"'), '"'));
+   }
+  }
+  catch (NumberFormatException ex) {
+   // fall through
+  }
+  // no version of ours can ever match this, so the precondition fails
+  return -1L;
+ }
+}
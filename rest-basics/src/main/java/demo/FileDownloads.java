@@ -0,0 +1,208 @@
+package demo;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes a file to the response with the conditional ({@code If-None-Match},
+ * {@code If-Modified-Since}) and range ({@code Range}, {@code If-Range})
+ * handling of a static file server.
+ * <p>
+ * The bytes are not copied through the heap: on Tomcat, a whole file or a
+ * single range is handed to the connector's sendfile support; otherwise, and
+ * for multi-range responses, they go through {@link FileChannel#transferTo}.
+ */
+final class FileDownloads {
+
+ // the request attributes of Tomcat's sendfile support
+ private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support",
+  SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename",
+  SENDFILE_START = "org.apache.tomcat.sendfile.start",
+  SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+ // more ranges than this are answered with the whole file
+ private static final int MAX_RANGES = 16;
+
+ private FileDownloads() {
+ }
+
+ /**
+  * @param eTag the quoted, strong entity tag of the file's content
+  * @return the number of body bytes that are sent
+  */
+ static long serve(File file, String eTag, long lastModified,
+  MediaType mediaType, CacheControl cacheControl, HttpServletRequest request,
+  HttpServletResponse response) throws IOException {
+  long length = file.length();
+  response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+  response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+  // sets ETag and Last-Modified, and answers 304 (or 412) if they match
+  if (new ServletWebRequest(request, response).checkNotModified(eTag,
+   lastModified)) {
+   return 0;
+  }
+
+  List<long[]> ranges;
+  try {
+   ranges = ranges(request, eTag, lastModified, length);
+  }
+  catch (IllegalArgumentException e) {
+   response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+   response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+   return 0;
+  }
+  boolean head = HttpMethod.HEAD.matches(request.getMethod());
+
+  if (ranges.size() <= 1) {
+   long start = 0, count = length;
+   if (ranges.size() == 1) {
+    start = ranges.get(0)[0];
+    count = ranges.get(0)[1] - start + 1;
+    response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+    response.setHeader(HttpHeaders.CONTENT_RANGE,
+     contentRange(ranges.get(0), length));
+   }
+   response.setContentType(mediaType.toString());
+   response.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(count));
+   if (head || count == 0) {
+    return 0;
+   }
+   if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+    // the connector transfers the file once the servlet returns
+    request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+    request.setAttribute(SENDFILE_START, start);
+    request.setAttribute(SENDFILE_END, start + count);
+    return count;
+   }
+   try (FileChannel channel = FileChannel.open(file.toPath(),
+    StandardOpenOption.READ)) {
+    transfer(channel, start, count, response.getOutputStream());
+   }
+   return count;
+  }
+
+  String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+  List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+  long contentLength = 0;
+  for (long[] range : ranges) {
+   byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+    + HttpHeaders.CONTENT_TYPE + ": " + mediaType + "\r\n"
+    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(range, length)
+    + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+   partHeaders.add(partHeader);
+   contentLength += partHeader.length + range[1] - range[0] + 1;
+  }
+  byte[] end = ("\r\n--" + boundary + "--\r\n")
+   .getBytes(StandardCharsets.US_ASCII);
+  contentLength += end.length;
+  response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+  response.setContentType("multipart/byteranges; boundary=" + boundary);
+  response.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(contentLength));
+  if (head) {
+   return 0;
+  }
+  OutputStream out = response.getOutputStream();
+  try (FileChannel channel = FileChannel.open(file.toPath(),
+   StandardOpenOption.READ)) {
+   for (int i = 0; i < ranges.size(); i++) {
+    long[] range = ranges.get(i);
+    out.write(partHeaders.get(i));
+    transfer(channel, range[0], range[1] - range[0] + 1, out);
+   }
+  }
+  out.write(end);
+  return contentLength;
+ }
+
+ /**
+  * @return the inclusive {@code [start, end]} of each range that should be
+  * sent, none for the whole file
+  * @throws IllegalArgumentException if the ranges are valid but can't be
+  * satisfied
+  */
+ private static List<long[]> ranges(HttpServletRequest request, String eTag,
+  long lastModified, long length) {
+  String range = request.getHeader(HttpHeaders.RANGE);
+  if (!StringUtils.hasText(range) || !ifRange(request, eTag, lastModified)) {
+   return Collections.emptyList();
+  }
+  List<HttpRange> httpRanges;
+  try {
+   httpRanges = HttpRange.parseRanges(range);
+  }
+  catch (IllegalArgumentException e) {
+   // a Range header that doesn't parse is ignored (RFC 7233, section 3.1)
+   return Collections.emptyList();
+  }
+  if (httpRanges.size() > MAX_RANGES) {
+   return Collections.emptyList();
+  }
+  List<long[]> ranges = new ArrayList<>(httpRanges.size());
+  for (HttpRange httpRange : httpRanges) {
+   long start = httpRange.getRangeStart(length);
+   long end = httpRange.getRangeEnd(length);
+   if (start >= length || start > end) {
+    throw new IllegalArgumentException("unsatisfiable range " + httpRange);
+   }
+   ranges.add(new long[] { start, end });
+  }
+  return ranges;
+ }
+
+ // a Range is only honoured if the If-Range validator (if any) still holds
+ private static boolean ifRange(HttpServletRequest request, String eTag,
+  long lastModified) {
+  String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+  if (!StringUtils.hasText(ifRange)) {
+   return true;
+  }
+  if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+   return ifRange.equals(eTag);
+  }
+  try {
+   return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+  }
+  catch (IllegalArgumentException e) {
+   return false;
+  }
+ }
+
+ private static String contentRange(long[] range, long length) {
+  return "bytes " + range[0] + "-" + range[1] + "/" + length;
+ }
+
+ private static void transfer(FileChannel channel, long position, long count,
+  OutputStream out) throws IOException {
+  // not closed: that would close the response
+  WritableByteChannel target = Channels.newChannel(out);
+  while (count > 0) {
+   long transferred = channel.transferTo(position, count, target);
+   if (transferred <= 0) {
+    break;
+   }
+   position += transferred;
+   count -= transferred;
+  }
+ }
+}
@@ -0,0 +1,83 @@
+package demo;
+
+import jdk.jfr.*;
+
+/**
+ * The Java Flight Recorder event types behind {@link FlightRecorderEvents}.
+ * Only {@link FlightRecorderEvents} may refer to them, and only once it has
+ * checked that the JVM has Flight Recorder.
+ */
+final class FlightRecorderEventTypes {
+
+ private FlightRecorderEventTypes() {
+ }
+
+ @Name("demo.RepositoryOperation")
+ @Label("Customer Repository Operation")
+ @Category({ "Customers", "Repository" })
+ @StackTrace(false)
+ static class RepositoryOperation extends Event implements
+  FlightRecorderEvents.Recordable {
+
+  @Label("Customer Id")
+  long customerId;
+
+  @Label("Method")
+  String method;
+ }
+
+ @Name("demo.RepresentationMapping")
+ @Label("Customer Representation Mapping")
+ @Description("Mapping of an entity to a HAL resource or a protobuf message")
+ @Category({ "Customers", "Mapping" })
+ @StackTrace(false)
+ static class RepresentationMapping extends Event implements
+  FlightRecorderEvents.Recordable {
+
+  @Label("Customer Id")
+  long customerId;
+
+  @Label("Representation")
+  String representation;
+ }
+
+ @Name("demo.MessageConversion")
+ @Label("Customer Message Conversion")
+ @Description("Encoding of a handler's return value into the response body")
+ @Category({ "Customers", "Conversion" })
+ @StackTrace(false)
+ static class MessageConversion extends Event implements
+  FlightRecorderEvents.Recordable {
+
+  @Label("Customer Id")
+  long customerId;
+
+  @Label("Media Type")
+  String mediaType;
+
+  @Label("Type")
+  String type;
+
+  @Label("Bytes")
+  @DataAmount
+  long bytes;
+ }
+
+ @Name("demo.PhotoIo")
+ @Label("Customer Photo I/O")
+ @Category({ "Customers", "Photo" })
+ @StackTrace(false)
+ static class PhotoIo extends Event implements
+  FlightRecorderEvents.Recordable {
+
+  @Label("Customer Id")
+  long customerId;
+
+  @Label("Operation")
+  String operation;
+
+  @Label("Bytes")
+  @DataAmount
+  long bytes;
+ }
+}
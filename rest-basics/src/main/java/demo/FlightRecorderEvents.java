@@ -0,0 +1,169 @@
+package demo;
+
+import org.springframework.util.ClassUtils;
+
+/**
+ * Java Flight Recorder events for the stages of a customer request. They are
+ * enabled like any other event, e.g. with
+ * {@code -XX:StartFlightRecording=settings=profile} or a {@code .jfc} file
+ * that turns on {@code demo.*}, and show up in JMC under "Customers". When
+ * recording is off, creating and committing them costs next to nothing.
+ * <p>
+ * The event types themselves are in {@link FlightRecorderEventTypes}, which
+ * is only loaded if the JVM has Flight Recorder ({@code jdk.jfr}, OpenJDK
+ * 8u262 and later). On any other JVM the events here record nothing.
+ */
+final class FlightRecorderEvents {
+
+ static final boolean AVAILABLE = ClassUtils.isPresent("jdk.jfr.Event",
+  FlightRecorderEvents.class.getClassLoader());
+
+ private FlightRecorderEvents() {
+ }
+
+ /**
+  * The methods of {@code jdk.jfr.Event} that are called through it.
+  */
+ interface Recordable {
+
+  void begin();
+
+  boolean shouldCommit();
+
+  void commit();
+ }
+
+ private abstract static class Recorded<E extends Recordable> {
+
+  // null unless the JVM has Flight Recorder
+  private final E event;
+
+  Recorded(E event) {
+   this.event = event;
+   if (event != null) {
+    event.begin();
+   }
+  }
+
+  boolean shouldCommit() {
+   return this.event != null && this.event.shouldCommit();
+  }
+
+  void commit() {
+   if (shouldCommit()) {
+    copyTo(this.event);
+    this.event.commit();
+   }
+  }
+
+  abstract void copyTo(E event);
+ }
+
+ static class RepositoryOperation extends
+  Recorded<FlightRecorderEventTypes.RepositoryOperation> {
+
+  long customerId;
+
+  String method;
+
+  private RepositoryOperation() {
+   super(AVAILABLE ? new FlightRecorderEventTypes.RepositoryOperation() : null);
+  }
+
+  static RepositoryOperation begin(String method, long customerId) {
+   RepositoryOperation event = new RepositoryOperation();
+   event.method = method;
+   event.customerId = customerId;
+   return event;
+  }
+
+  @Override
+  void copyTo(FlightRecorderEventTypes.RepositoryOperation event) {
+   event.customerId = this.customerId;
+   event.method = this.method;
+  }
+ }
+
+ static class RepresentationMapping extends
+  Recorded<FlightRecorderEventTypes.RepresentationMapping> {
+
+  long customerId;
+
+  String representation;
+
+  private RepresentationMapping() {
+   super(AVAILABLE ? new FlightRecorderEventTypes.RepresentationMapping()
+    : null);
+  }
+
+  static RepresentationMapping begin(String representation, Long customerId) {
+   RepresentationMapping event = new RepresentationMapping();
+   event.representation = representation;
+   event.customerId = customerId == null ? 0 : customerId;
+   return event;
+  }
+
+  @Override
+  void copyTo(FlightRecorderEventTypes.RepresentationMapping event) {
+   event.customerId = this.customerId;
+   event.representation = this.representation;
+  }
+ }
+
+ static class MessageConversion extends
+  Recorded<FlightRecorderEventTypes.MessageConversion> {
+
+  long customerId;
+
+  String mediaType;
+
+  String type;
+
+  long bytes;
+
+  private MessageConversion() {
+   super(AVAILABLE ? new FlightRecorderEventTypes.MessageConversion() : null);
+  }
+
+  static MessageConversion begin(long customerId) {
+   MessageConversion event = new MessageConversion();
+   event.customerId = customerId;
+   return event;
+  }
+
+  @Override
+  void copyTo(FlightRecorderEventTypes.MessageConversion event) {
+   event.customerId = this.customerId;
+   event.mediaType = this.mediaType;
+   event.type = this.type;
+   event.bytes = this.bytes;
+  }
+ }
+
+ static class PhotoIo extends Recorded<FlightRecorderEventTypes.PhotoIo> {
+
+  long customerId;
+
+  String operation;
+
+  long bytes;
+
+  private PhotoIo() {
+   super(AVAILABLE ? new FlightRecorderEventTypes.PhotoIo() : null);
+  }
+
+  static PhotoIo begin(String operation, long customerId) {
+   PhotoIo event = new PhotoIo();
+   event.operation = operation;
+   event.customerId = customerId;
+   return event;
+  }
+
+  @Override
+  void copyTo(FlightRecorderEventTypes.PhotoIo event) {
+   event.customerId = this.customerId;
+   event.operation = this.operation;
+   event.bytes = this.bytes;
+  }
+ }
+}
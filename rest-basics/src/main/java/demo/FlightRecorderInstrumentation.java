@@ -0,0 +1,121 @@
+package demo;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.mvc.method.annotation.HttpEntityMethodProcessor;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.RequestResponseBodyMethodProcessor;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Emits {@link FlightRecorderEvents} around every {@link CustomerRepository}
+ * call and around the message conversion of {@code @ResponseBody} and
+ * {@code ResponseEntity} return values. The mapping and photo events are
+ * emitted where that work is done.
+ */
+@Component
+class FlightRecorderInstrumentation implements BeanPostProcessor {
+
+ @Override
+ public Object postProcessBeforeInitialization(Object bean, String beanName) {
+  return bean;
+ }
+
+ @Override
+ public Object postProcessAfterInitialization(Object bean, String beanName) {
+  if (bean instanceof CustomerRepository) {
+   ProxyFactory proxyFactory = new ProxyFactory(bean);
+   proxyFactory.addAdvice((MethodInterceptor) invocation -> {
+    Object[] arguments = invocation.getArguments();
+    FlightRecorderEvents.RepositoryOperation event = FlightRecorderEvents.RepositoryOperation
+     .begin(invocation.getMethod().getName(), arguments.length > 0
+      && arguments[0] instanceof Long ? (Long) arguments[0] : 0);
+    try {
+     return invocation.proceed();
+    }
+    finally {
+     event.commit();
+    }
+   });
+   return proxyFactory.getProxy();
+  }
+  if (bean instanceof RequestMappingHandlerAdapter) {
+   RequestMappingHandlerAdapter adapter = (RequestMappingHandlerAdapter) bean;
+   List<HandlerMethodReturnValueHandler> handlers = adapter
+    .getReturnValueHandlers().stream()
+    .map(FlightRecorderInstrumentation::recording)
+    .collect(Collectors.toList());
+   adapter.setReturnValueHandlers(handlers);
+  }
+  return bean;
+ }
+
+ private static HandlerMethodReturnValueHandler recording(
+  HandlerMethodReturnValueHandler handler) {
+  if (!(handler instanceof RequestResponseBodyMethodProcessor || handler instanceof HttpEntityMethodProcessor)) {
+   return handler;
+  }
+  return new HandlerMethodReturnValueHandler() {
+
+   @Override
+   public boolean supportsReturnType(MethodParameter returnType) {
+    return handler.supportsReturnType(returnType);
+   }
+
+   @Override
+   public void handleReturnValue(Object returnValue,
+    MethodParameter returnType, ModelAndViewContainer mavContainer,
+    NativeWebRequest webRequest) throws Exception {
+    FlightRecorderEvents.MessageConversion event = FlightRecorderEvents.MessageConversion
+     .begin(customerId(webRequest));
+    try {
+     handler.handleReturnValue(returnValue, returnType, mavContainer,
+      webRequest);
+    }
+    finally {
+     if (event.shouldCommit()) {
+      Object body = returnValue instanceof HttpEntity ? ((HttpEntity<?>) returnValue)
+       .getBody() : returnValue;
+      event.type = body == null ? null : body.getClass().getName();
+      HttpServletResponse response = webRequest
+       .getNativeResponse(HttpServletResponse.class);
+      if (response != null) {
+       event.mediaType = response.getContentType();
+       String contentLength = response.getHeader(HttpHeaders.CONTENT_LENGTH);
+       event.bytes = contentLength == null ? -1 : Long
+        .parseLong(contentLength);
+      }
+      event.commit();
+     }
+    }
+   }
+  };
+ }
+
+ private static long customerId(NativeWebRequest webRequest) {
+  Map<?, ?> variables = (Map<?, ?>) webRequest.getAttribute(
+   HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE,
+   RequestAttributes.SCOPE_REQUEST);
+  Object id = variables == null ? null : variables.get("id");
+  try {
+   return id == null ? 0 : Long.parseLong(id.toString());
+  }
+  catch (NumberFormatException e) {
+   return 0;
+  }
+ }
+}
@@ -0,0 +1,59 @@
+package demo;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Publishes the hit, miss and put counts of every Hibernate second-level cache
+ * region (and of the query cache as a whole) on the {@code /metrics} endpoint.
+ * Requires {@code hibernate.generate_statistics}.
+ */
+@Component
+class HibernateCacheMetrics implements PublicMetrics {
+
+ private final Statistics statistics;
+
+ @Autowired
+ HibernateCacheMetrics(EntityManagerFactory entityManagerFactory) {
+  this.statistics = entityManagerFactory.unwrap(SessionFactory.class)
+   .getStatistics();
+ }
+
+ @Override
+ public Collection<Metric<?>> metrics() {
+  if (!this.statistics.isStatisticsEnabled()) {
+   return Collections.emptyList();
+  }
+  List<Metric<?>> metrics = new ArrayList<>();
+  for (String region : this.statistics.getSecondLevelCacheRegionNames()) {
+   SecondLevelCacheStatistics stats = this.statistics
+    .getSecondLevelCacheStatistics(region);
+   if (stats == null) {
+    continue;
+   }
+   String prefix = "hibernate.cache." + region + ".";
+   metrics.add(new Metric<>(prefix + "hits", stats.getHitCount()));
+   metrics.add(new Metric<>(prefix + "misses", stats.getMissCount()));
+   metrics.add(new Metric<>(prefix + "puts", stats.getPutCount()));
+   metrics.add(new Metric<>(prefix + "entries", stats.getElementCountInMemory()));
+  }
+  metrics.add(new Metric<>("hibernate.query-cache.hits",
+   this.statistics.getQueryCacheHitCount()));
+  metrics.add(new Metric<>("hibernate.query-cache.misses",
+   this.statistics.getQueryCacheMissCount()));
+  metrics.add(new Metric<>("hibernate.query-cache.puts",
+   this.statistics.getQueryCachePutCount()));
+  return metrics;
+ }
+}
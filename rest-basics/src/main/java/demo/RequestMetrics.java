@@ -0,0 +1,272 @@
+package demo;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Records the latency and the request and response payload sizes of every
+ * request that reaches a controller handler. The values go into histograms,
+ * one per handler, negotiated media type, API version and status. They are
+ * published on the {@code /metrics} endpoint as
+ * {@code http.requests[handler=..,media-type=..,version=..,versioning=..,status=..]}
+ * followed by {@code .count}, {@code .latency.*} (in milliseconds),
+ * {@code .request-bytes.*} and {@code .response-bytes.*}, where {@code *} is
+ * {@code p50}, {@code p90}, {@code p99}, {@code p999} and {@code max}. The
+ * values count from startup.
+ * <p>
+ * {@code versioning} says where the version came from: the {@code path}, the
+ * {@code media-type} that was negotiated, the {@code X-API-Version}
+ * {@code header}, or {@code none}. Versions other than those the API
+ * serves ({@code v1}, {@code v2}) are recorded as {@code other}, so that
+ * clients can't create a series per made-up version.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+class RequestMetrics extends OncePerRequestFilter implements PublicMetrics {
+
+ static final String HANDLER_ATTRIBUTE = RequestMetrics.class.getName()
+  + ".handler";
+
+ static final String API_VERSION_HEADER = "X-API-Version";
+
+ private static final Pattern PATH_VERSION = Pattern
+  .compile("(?:^|/)(v\\d+)(?:/|$)");
+
+ private static final Pattern MEDIA_TYPE_VERSION = Pattern
+  .compile("\\.[^.+]*-(v\\d+)(?:\\+|$)");
+
+ private static final Set<String> VERSIONS = new HashSet<>(Arrays.asList("v1",
+  "v2"));
+
+ private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<>();
+
+ @Override
+ protected void doFilterInternal(HttpServletRequest request,
+  HttpServletResponse response, FilterChain filterChain)
+  throws ServletException, IOException {
+  long start = System.nanoTime();
+  CountingResponse counting = new CountingResponse(response);
+  try {
+   filterChain.doFilter(request, counting);
+  }
+  finally {
+   if (request.isAsyncStarted()) {
+    request.getAsyncContext().addListener(new AsyncListener() {
+
+     @Override
+     public void onComplete(AsyncEvent event) {
+      record(request, counting, start);
+     }
+
+     @Override
+     public void onTimeout(AsyncEvent event) {
+     }
+
+     @Override
+     public void onError(AsyncEvent event) {
+     }
+
+     @Override
+     public void onStartAsync(AsyncEvent event) {
+     }
+    });
+   }
+   else {
+    record(request, counting, start);
+   }
+  }
+ }
+
+ @Override
+ public Collection<Metric<?>> metrics() {
+  List<Metric<?>> metrics = new ArrayList<>();
+  new TreeMap<>(this.series).forEach((name, series) -> {
+   metrics.add(new Metric<>(name + ".count", series.latency.getTotalCount()));
+   add(metrics, name + ".latency.", series.latency, 1000.0);
+   add(metrics, name + ".request-bytes.", series.requestBytes, 1);
+   add(metrics, name + ".response-bytes.", series.responseBytes, 1);
+  });
+  return metrics;
+ }
+
+ private void record(HttpServletRequest request, CountingResponse response,
+  long start) {
+  Object handler = request.getAttribute(HANDLER_ATTRIBUTE);
+  if (!(handler instanceof HandlerMethod)) {
+   return;
+  }
+  long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+  long responseBytes = response.count;
+  String contentLength = response.getHeader(HttpHeaders.CONTENT_LENGTH);
+  if (responseBytes == 0 && StringUtils.hasText(contentLength)) {
+   // e.g. a body the container sent without the servlet output stream
+   responseBytes = Long.parseLong(contentLength);
+  }
+  Series series = this.series.computeIfAbsent(
+   name((HandlerMethod) handler, request, response), n -> new Series());
+  series.latency.recordValue(micros);
+  series.requestBytes.recordValue(Math.max(0, request.getContentLengthLong()));
+  series.responseBytes.recordValue(responseBytes);
+ }
+
+ private static String name(HandlerMethod handler, HttpServletRequest request,
+  HttpServletResponse response) {
+  String mediaType = "none";
+  if (StringUtils.hasText(response.getContentType())) {
+   MediaType contentType = MediaType.parseMediaType(response.getContentType());
+   mediaType = contentType.getType() + "/" + contentType.getSubtype();
+  }
+  String version = "none", versioning = "none";
+  Object pattern = request
+   .getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+  Map<?, ?> variables = (Map<?, ?>) request
+   .getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+  Matcher matcher;
+  if (pattern != null
+   && (matcher = PATH_VERSION.matcher(pattern.toString())).find()) {
+   version = matcher.group(1);
+   versioning = "path";
+  }
+  else if (variables != null && variables.containsKey("version")) {
+   version = String.valueOf(variables.get("version"));
+   versioning = "path";
+  }
+  else if ((matcher = MEDIA_TYPE_VERSION.matcher(mediaType)).find()) {
+   version = matcher.group(1);
+   versioning = "media-type";
+  }
+  else if (StringUtils.hasText(request.getHeader(API_VERSION_HEADER))) {
+   version = request.getHeader(API_VERSION_HEADER);
+   versioning = "header";
+  }
+  if (!versioning.equals("none") && !VERSIONS.contains(version)) {
+   version = "other";
+  }
+  return String.format(
+   "http.requests[handler=%s.%s,media-type=%s,version=%s,versioning=%s,status=%s]",
+   handler.getBeanType().getSimpleName(), handler.getMethod().getName(),
+   mediaType, version, versioning, response.getStatus());
+ }
+
+ private static void add(List<Metric<?>> metrics, String prefix,
+  Histogram histogram, double scale) {
+  metrics.add(new Metric<>(prefix + "p50",
+   histogram.getValueAtPercentile(50) / scale));
+  metrics.add(new Metric<>(prefix + "p90",
+   histogram.getValueAtPercentile(90) / scale));
+  metrics.add(new Metric<>(prefix + "p99",
+   histogram.getValueAtPercentile(99) / scale));
+  metrics.add(new Metric<>(prefix + "p999",
+   histogram.getValueAtPercentile(99.9) / scale));
+  metrics.add(new Metric<>(prefix + "max", histogram.getMaxValue() / scale));
+ }
+
+ private static class Series {
+
+  private final Histogram latency = new ConcurrentHistogram(3);
+
+  private final Histogram requestBytes = new ConcurrentHistogram(2);
+
+  private final Histogram responseBytes = new ConcurrentHistogram(2);
+ }
+
+ private static class CountingResponse extends HttpServletResponseWrapper {
+
+  private volatile long count;
+
+  private ServletOutputStream outputStream;
+
+  CountingResponse(HttpServletResponse response) {
+   super(response);
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+   if (this.outputStream == null) {
+    ServletOutputStream delegate = super.getOutputStream();
+    this.outputStream = new ServletOutputStream() {
+
+     @Override
+     public void write(int b) throws IOException {
+      delegate.write(b);
+      count++;
+     }
+
+     @Override
+     public void write(byte[] b, int off, int len) throws IOException {
+      delegate.write(b, off, len);
+      count += len;
+     }
+
+     @Override
+     public void flush() throws IOException {
+      delegate.flush();
+     }
+
+     @Override
+     public void close() throws IOException {
+      delegate.close();
+     }
+
+     @Override
+     public boolean isReady() {
+      return delegate.isReady();
+     }
+
+     @Override
+     public void setWriteListener(WriteListener writeListener) {
+      delegate.setWriteListener(writeListener);
+     }
+    };
+   }
+   return this.outputStream;
+  }
+ }
+
+ // tells the filter which handler method served the request
+ @Configuration
+ static class HandlerInterceptorConfiguration extends WebMvcConfigurerAdapter {
+
+  @Override
+  public void addInterceptors(InterceptorRegistry registry) {
+   registry.addInterceptor(new HandlerInterceptorAdapter() {
+
+    @Override
+    public boolean preHandle(HttpServletRequest request,
+     HttpServletResponse response, Object handler) {
+     if (handler instanceof HandlerMethod) {
+      request.setAttribute(HANDLER_ATTRIBUTE, handler);
+     }
+     return true;
+    }
+   });
+  }
+ }
+}
@@ -0,0 +1,72 @@
+package demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.Map;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@RunWith(SpringRunner.class)
+@AutoConfigureMockMvc
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+public class CustomerExportRestControllerTest {
+
+ @Autowired
+ private MockMvc mockMvc;
+
+ @Autowired
+ private CustomerRepository customerRepository;
+
+ @Autowired
+ private ObjectMapper objectMapper;
+
+ private String rootPath = "/v1/customers/export";
+
+ @Test
+ public void exportNdjson() throws Exception {
+  MvcResult mvcResult = this.mockMvc
+   .perform(
+    get(this.rootPath).accept(
+     MediaType.parseMediaType(CustomerExportRestController.NDJSON_VALUE)))
+   .andExpect(request().asyncStarted()).andReturn();
+
+  String body = this.mockMvc.perform(asyncDispatch(mvcResult))
+   .andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+
+  String[] lines = body.split("\n");
+  Assert.assertEquals(this.customerRepository.count(), lines.length);
+  for (String line : lines) {
+   Map<?, ?> customer = this.objectMapper.readValue(line, Map.class);
+   Assert.assertNotNull(customer.get("id"));
+   Assert.assertNotNull(customer.get("lastName"));
+  }
+ }
+
+ @Test
+ public void exportCsv() throws Exception {
+  MvcResult mvcResult = this.mockMvc
+   .perform(
+    get(this.rootPath).accept(
+     MediaType.parseMediaType(CustomerExportRestController.CSV_VALUE)))
+   .andExpect(request().asyncStarted()).andReturn();
+
+  String body = this.mockMvc.perform(asyncDispatch(mvcResult))
+   .andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+
+  String[] lines = body.split("\n");
+  Assert.assertEquals("id,firstName,lastName", lines[0]);
+  Assert.assertEquals(this.customerRepository.count() + 1, lines.length);
+ }
+}
@@ -0,0 +1,138 @@
+package demo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.hateoas.MediaTypes;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Searches misspelled and partial names through v1 and v2, against an index
+ * that follows writes made through {@link CustomerRepository}.
+ */
+@RunWith(SpringRunner.class)
+@AutoConfigureMockMvc
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+public class CustomerFullTextSearchTest {
+
+ @Autowired
+ private MockMvc mockMvc;
+
+ @Autowired
+ private CustomerRepository customerRepository;
+
+ @Autowired
+ private CustomerSearchIndex customerSearchIndex;
+
+ private List<Customer> customers;
+
+ @Before
+ public void before() {
+  this.customers = this.customerRepository.save(Arrays.asList(new Customer(
+   "Matthew", "Murdock"), new Customer("Matt", "Murdoch"), new Customer(
+   "Elektra", "Natchios")));
+  this.customerSearchIndex.refresh();
+ }
+
+ @After
+ public void after() {
+  this.customers.forEach(c -> this.customerRepository.deleteWithoutLoading(c
+   .getId()));
+  this.customerSearchIndex.refresh();
+ }
+
+ @Test
+ public void misspelledNamesAreFoundAndRanked() throws Exception {
+  this.mockMvc.perform(get("/v1/customers/fulltext?q=mathew murdok"))
+   .andExpect(status().isOk())
+   .andExpect(header().string(CustomerRestController.TOTAL_COUNT_HEADER, "1"))
+   .andExpect(jsonPath("$[0].firstName", is("Matthew")));
+  // an exact match outranks a prefix match
+  this.mockMvc.perform(get("/v1/customers/fulltext?q=matt"))
+   .andExpect(status().isOk())
+   .andExpect(jsonPath("$[*].firstName", contains("Matt", "Matthew")));
+ }
+
+ @Test
+ public void partialNamesArePaged() throws Exception {
+  this.mockMvc.perform(get("/v1/customers/fulltext?q=murd&limit=1"))
+   .andExpect(status().isOk()).andExpect(jsonPath("$", hasSize(1)))
+   .andExpect(header().string("Link", containsString("page=1")));
+  this.mockMvc
+   .perform(
+    get("/v2/customers/fulltext?q=murd&size=1&page=1").accept(
+     MediaTypes.HAL_JSON)).andExpect(status().isOk())
+   .andExpect(jsonPath("$._embedded.customers", hasSize(1)))
+   .andExpect(jsonPath("$.page.totalElements", is(2)))
+   .andExpect(jsonPath("$._links.prev.href", containsString("page=0")))
+   .andExpect(jsonPath("$._links.next").doesNotExist());
+ }
+
+ @Test
+ public void badSearchesAreRejected() throws Exception {
+  this.mockMvc.perform(get("/v1/customers/fulltext?q=%20")).andExpect(
+   status().isBadRequest());
+  this.mockMvc.perform(get("/v1/customers/fulltext?q=murd&page=9999"))
+   .andExpect(status().isBadRequest());
+  this.mockMvc.perform(get("/v1/customers/fulltext?q=murd&page=-1"))
+   .andExpect(status().isBadRequest());
+  this.mockMvc.perform(
+   get("/v2/customers/fulltext?q=murd&page=-1").accept(MediaTypes.HAL_JSON))
+   .andExpect(status().isBadRequest());
+ }
+
+ @Test
+ public void writesAreSearchableAfterARefresh() throws Exception {
+  Customer elektra = this.customers.get(2);
+  this.customerRepository.updateNames(elektra.getId(), "Elektra", "King",
+   null);
+  this.customerSearchIndex.refresh();
+
+  this.mockMvc.perform(get("/v1/customers/fulltext?q=natchios"))
+   .andExpect(status().isOk()).andExpect(jsonPath("$", hasSize(0)));
+  this.mockMvc.perform(get("/v1/customers/fulltext?q=elektra king"))
+   .andExpect(status().isOk())
+   .andExpect(jsonPath("$[0].id", is(elektra.getId().intValue())));
+ }
+
+ @Test
+ public void changesDuringTheInitialLoadAreNotOverwritten() throws Exception {
+  CustomerBulkOperations bulkOperations = mock(CustomerBulkOperations.class);
+  CustomerSearchIndex index = new CustomerSearchIndex(bulkOperations, 1000, 1000);
+  try {
+   // the load reads the old name, the rename commits while it still runs
+   given(bulkOperations.export(any())).willAnswer(invocation -> {
+    index.changed(CustomerChangedEvent.updated(1L, 2L, "Elektra", "King"));
+    ((CustomerBulkOperations.CustomerWriter) invocation.getArguments()[0])
+     .write(new Customer(1L, "Elektra", "Natchios"));
+    return 1L;
+   });
+   index.load();
+
+   assertThat(index.search("elektra", new PageRequest(0, 10)).getContent()
+    .stream().map(CustomerProjection::getLastName).collect(Collectors.toList()),
+    contains("King"));
+  }
+  finally {
+   index.close();
+  }
+ }
+}
@@ -0,0 +1,129 @@
+package demo;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Runs {@code /v1/customers/search} against the database, and checks that the
+ * lookups it issues are answered from the lower-cased name indexes rather
+ * than by scanning the table.
+ */
+@RunWith(SpringRunner.class)
+@AutoConfigureMockMvc
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+ properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=demo.CustomerNameSearchTest$StatementCapture")
+public class CustomerNameSearchTest {
+
+ private static final Pattern NEXT = Pattern.compile("<([^>]+)>; rel=\"next\"");
+
+ @Autowired
+ private MockMvc mockMvc;
+
+ @Autowired
+ private CustomerRepository customerRepository;
+
+ @Autowired
+ private JdbcTemplate jdbcTemplate;
+
+ private List<Customer> customers;
+
+ @Before
+ public void before() {
+  this.customers = this.customerRepository.save(Arrays.asList(new Customer(
+   "Peter", "Parker"), new Customer("May", "PARKER"), new Customer("Ben",
+   "parkinson"), new Customer("Wade", "Wilson")));
+ }
+
+ @After
+ public void after() {
+  this.customers.forEach(c -> this.customerRepository.deleteWithoutLoading(c
+   .getId()));
+ }
+
+ @Test
+ public void exactMatchIgnoresCase() throws Exception {
+  this.mockMvc.perform(get("/v1/customers/search?lastName=parker"))
+   .andExpect(status().isOk()).andExpect(jsonPath("$", hasSize(2)))
+   .andExpect(jsonPath("$[*].firstName", contains("Peter", "May")));
+ }
+
+ @Test
+ public void prefixMatchIsPagedByNameThenId() throws Exception {
+  MvcResult first = this.mockMvc
+   .perform(get("/v1/customers/search?lastName=PARK&prefix=true&limit=2"))
+   .andExpect(status().isOk()).andExpect(jsonPath("$", hasSize(2)))
+   .andExpect(jsonPath("$[*].firstName", contains("Peter", "May")))
+   .andExpect(header().string("Link", containsString("rel=\"next\"")))
+   .andReturn();
+  Matcher next = NEXT.matcher(first.getResponse().getHeader("Link"));
+  assertThat(next.find(), is(true));
+  this.mockMvc.perform(get(URI.create(next.group(1))))
+   .andExpect(status().isOk()).andExpect(jsonPath("$", hasSize(1)))
+   .andExpect(jsonPath("$[0].lastName", is("parkinson")))
+   .andExpect(header().doesNotExist("Link"));
+ }
+
+ @Test
+ public void searchNeedsExactlyOneName() throws Exception {
+  this.mockMvc.perform(get("/v1/customers/search")).andExpect(
+   status().isBadRequest());
+  this.mockMvc.perform(
+   get("/v1/customers/search?firstName=peter&lastName=parker")).andExpect(
+   status().isBadRequest());
+  this.mockMvc.perform(get("/v1/customers/search?lastName=parker&after=x"))
+   .andExpect(status().isBadRequest());
+ }
+
+ @Test
+ public void lookupsUseTheNameIndex() throws Exception {
+  assertThat(explain("/v1/customers/search?lastName=parker"),
+   containsString("CUSTOMER_LAST_NAME_IDX"));
+  assertThat(explain("/v1/customers/search?firstName=pe&prefix=true"),
+   containsString("CUSTOMER_FIRST_NAME_IDX"));
+ }
+
+ // explains the statement Hibernate actually issued for the search
+ private String explain(String search) throws Exception {
+  StatementCapture.STATEMENTS.clear();
+  this.mockMvc.perform(get(search)).andExpect(status().isOk());
+  String sql = StatementCapture.STATEMENTS.stream()
+   .filter(s -> s.contains("_lower")).findFirst()
+   .orElseThrow(() -> new AssertionError("no search statement"));
+  // H2 plans a plain EXPLAIN without binding its parameters
+  return this.jdbcTemplate.queryForObject("explain " + sql, String.class)
+   .toUpperCase();
+ }
+
+ public static class StatementCapture implements StatementInspector {
+
+  static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+  @Override
+  public String inspect(String sql) {
+   STATEMENTS.add(sql);
+   return sql;
+  }
+ }
+}
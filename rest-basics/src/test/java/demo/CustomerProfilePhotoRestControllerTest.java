@@ -16,12 +16,17 @@ import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.util.StreamUtils;
 import org.springframework.web.context.ConfigurableWebApplicationContext;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
@@ -29,8 +34,12 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.stream.Stream;
 
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.startsWith;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
@@ -136,6 +145,43 @@ public class CustomerProfilePhotoRestControllerTest {
    .andReturn();
  }
 
+ @Test
+ public void rawPhotoUploadWithExistingCustomer() throws Exception {
+  MvcResult mvcResult = this.mockMvc
+   .perform(
+    put(this.urlTemplate, this.bruceBanner.getId()).contentType(
+     MediaType.IMAGE_JPEG).content(this.dogeBytes))
+   .andExpect(request().asyncStarted()).andReturn();
+
+  mvcResult.getAsyncResult();
+
+  this.mockMvc
+   .perform(asyncDispatch(mvcResult))
+   .andExpect(status().isCreated())
+   .andExpect(
+    header().string("Location",
+     "http://localhost/customers/" + this.bruceBanner.getId() + "/photo"));
+
+  this.mockMvc.perform(get(this.urlTemplate, this.bruceBanner.getId()))
+   .andExpect(status().isOk()).andExpect(content().bytes(this.dogeBytes));
+  File[] leftovers = new File(tmpFile, "uploads").listFiles();
+  Assert.assertEquals(0, leftovers.length);
+ }
+
+ @Test
+ public void rawPhotoUploadWithNonExistingCustomer() throws Exception {
+  MvcResult mvcResult = this.mockMvc
+   .perform(
+    put(this.urlTemplate, 0).contentType(MediaType.APPLICATION_OCTET_STREAM)
+     .content(this.dogeBytes)).andExpect(request().asyncStarted())
+   .andReturn();
+
+  mvcResult.getAsyncResult();
+
+  this.mockMvc.perform(asyncDispatch(mvcResult)).andExpect(
+   status().isNotFound());
+ }
+
  @Test
  public void photoDownloadWithExistingPhoto() throws Exception {
   MvcResult mvcResult = this.mockMvc
@@ -154,6 +200,188 @@ public class CustomerProfilePhotoRestControllerTest {
    .andExpect(status().isOk());
  }
 
+ @Test
+ public void photoDownloadWithValidatorsAndRanges() throws Exception {
+  MvcResult upload = this.mockMvc
+   .perform(
+    fileUpload(this.urlTemplate, this.bruceBanner.getId()).file("file",
+     this.dogeBytes)).andExpect(request().asyncStarted()).andReturn();
+  upload.getAsyncResult();
+
+  MvcResult download = this.mockMvc
+   .perform(get(this.urlTemplate, this.bruceBanner.getId()))
+   .andExpect(status().isOk())
+   .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+   .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=604800, public"))
+   .andExpect(content().bytes(this.dogeBytes)).andReturn();
+  String eTag = download.getResponse().getHeader(HttpHeaders.ETAG);
+  Assert.assertNotNull(eTag);
+  Assert.assertNotNull(download.getResponse().getHeader(
+   HttpHeaders.LAST_MODIFIED));
+
+  this.mockMvc
+   .perform(
+    get(this.urlTemplate, this.bruceBanner.getId()).header(
+     HttpHeaders.IF_NONE_MATCH, eTag)).andExpect(status().isNotModified())
+   .andExpect(content().bytes(new byte[0]));
+
+  this.mockMvc
+   .perform(
+    get(this.urlTemplate, this.bruceBanner.getId()).header(HttpHeaders.RANGE,
+     "bytes=10-19"))
+   .andExpect(status().isPartialContent())
+   .andExpect(
+    header().string(HttpHeaders.CONTENT_RANGE,
+     "bytes 10-19/" + this.dogeBytes.length))
+   .andExpect(
+    content().bytes(Arrays.copyOfRange(this.dogeBytes, 10, 20)));
+
+  // a stale If-Range gets the whole photo
+  this.mockMvc
+   .perform(
+    get(this.urlTemplate, this.bruceBanner.getId())
+     .header(HttpHeaders.RANGE, "bytes=10-19")
+     .header(HttpHeaders.IF_RANGE, "\"stale\""))
+   .andExpect(status().isOk()).andExpect(content().bytes(this.dogeBytes));
+
+  String multipart = this.mockMvc
+   .perform(
+    get(this.urlTemplate, this.bruceBanner.getId()).header(HttpHeaders.RANGE,
+     "bytes=0-1,-2")).andExpect(status().isPartialContent())
+   .andExpect(
+    header().string(HttpHeaders.CONTENT_TYPE,
+     startsWith("multipart/byteranges; boundary="))).andReturn()
+   .getResponse().getContentAsString();
+  Assert.assertTrue(multipart, multipart.contains("Content-Range: bytes 0-1/"
+   + this.dogeBytes.length));
+  Assert.assertTrue(multipart, multipart.contains("Content-Range: bytes "
+   + (this.dogeBytes.length - 2) + "-" + (this.dogeBytes.length - 1) + "/"
+   + this.dogeBytes.length));
+
+  this.mockMvc
+   .perform(
+    get(this.urlTemplate, this.bruceBanner.getId()).header(HttpHeaders.RANGE,
+     "bytes=" + this.dogeBytes.length + "-"))
+   .andExpect(status().isRequestedRangeNotSatisfiable())
+   .andExpect(
+    header().string(HttpHeaders.CONTENT_RANGE,
+     "bytes */" + this.dogeBytes.length));
+
+  // a malformed Range is ignored
+  for (String range : new String[] { "bytes=19-10", "bytes=x-", "items=0-1" }) {
+   this.mockMvc
+    .perform(
+     get(this.urlTemplate, this.bruceBanner.getId()).header(HttpHeaders.RANGE,
+      range)).andExpect(status().isOk())
+    .andExpect(content().bytes(this.dogeBytes));
+  }
+ }
+
+ @Test
+ public void identicalPhotosAreStoredOnce() throws Exception {
+  byte[] otherBytes = Arrays.copyOf(this.dogeBytes, this.dogeBytes.length + 1);
+  upload(this.bruceBanner, this.dogeBytes);
+  upload(this.peterParker, this.dogeBytes);
+  Assert.assertEquals(1, blobs());
+
+  upload(this.peterParker, otherBytes);
+  Assert.assertEquals(2, blobs());
+  this.mockMvc.perform(get(this.urlTemplate, this.peterParker.getId()))
+   .andExpect(content().bytes(otherBytes));
+
+  // the other photo has no references left
+  upload(this.peterParker, this.dogeBytes);
+  Assert.assertEquals(1, blobs());
+  this.mockMvc.perform(get(this.urlTemplate, this.bruceBanner.getId()))
+   .andExpect(content().bytes(this.dogeBytes));
+ }
+
+ @Test
+ public void deletingACustomerReleasesItsPhoto() throws Exception {
+  Customer customer = this.customerRepository.save(new Customer("Bruce",
+   "Wayne"));
+  long blobs = blobs();
+  upload(customer, Arrays.copyOf(this.dogeBytes, this.dogeBytes.length + 2));
+  Assert.assertEquals(blobs + 1, blobs());
+
+  this.customerRepository.deleteWithoutLoading(customer.getId());
+  Assert.assertEquals(blobs, blobs());
+  this.mockMvc.perform(get(this.urlTemplate, customer.getId())).andExpect(
+   status().isNotFound());
+ }
+
+ private void upload(Customer customer, byte[] photo) throws Exception {
+  MvcResult mvcResult = this.mockMvc
+   .perform(
+    put(this.urlTemplate, customer.getId()).contentType(MediaType.IMAGE_JPEG)
+     .content(photo)).andExpect(request().asyncStarted()).andReturn();
+  mvcResult.getAsyncResult();
+  this.mockMvc.perform(asyncDispatch(mvcResult)).andExpect(
+   status().isCreated());
+ }
+
+ private long blobs() throws IOException {
+  try (Stream<Path> blobs = Files.walk(new File(tmpFile, "blobs").toPath())) {
+   return blobs.filter(Files::isRegularFile).count();
+  }
+ }
+
+ @Test
+ public void photoVariantsAreMadeAfterUpload() throws Exception {
+  MvcResult upload = this.mockMvc
+   .perform(
+    put(this.urlTemplate, this.peterParker.getId()).contentType(
+     MediaType.IMAGE_JPEG).content(this.dogeBytes))
+   .andExpect(request().asyncStarted()).andReturn();
+  upload.getAsyncResult();
+
+  BufferedImage original = ImageIO.read(new ByteArrayInputStream(
+   this.dogeBytes));
+  Assert.assertTrue(Math.max(original.getWidth(), original.getHeight()) > 64);
+
+  // the original stands in, uncached, until the variant is made
+  BufferedImage variant = null;
+  for (int attempt = 0; attempt < 100; attempt++) {
+   MockHttpServletResponse response = this.mockMvc
+    .perform(
+     get(this.urlTemplate, this.peterParker.getId()).param("size", "50"))
+    .andExpect(status().isOk()).andReturn().getResponse();
+   if (!"no-cache".equals(response.getHeader(HttpHeaders.CACHE_CONTROL))) {
+    variant = ImageIO.read(new ByteArrayInputStream(response
+     .getContentAsByteArray()));
+    break;
+   }
+   Assert.assertArrayEquals(this.dogeBytes, response.getContentAsByteArray());
+   Thread.sleep(100);
+  }
+  Assert.assertNotNull("no variant was made", variant);
+  Assert.assertEquals(64, Math.max(variant.getWidth(), variant.getHeight()));
+ }
+
+ @Test
+ public void photosWithTooManyPixelsGetNoVariants() throws Exception {
+  // 25 million pixels in a few kilobytes of PNG
+  ByteArrayOutputStream png = new ByteArrayOutputStream();
+  ImageIO.write(new BufferedImage(5000, 5000, BufferedImage.TYPE_BYTE_BINARY),
+   "png", png);
+  upload(this.peterParker, png.toByteArray());
+
+  StringBuilder hash = new StringBuilder();
+  for (byte b : MessageDigest.getInstance("SHA-256").digest(png.toByteArray())) {
+   hash.append(String.format("%02x", b));
+  }
+  File marker = new File(tmpFile, "pending/" + hash);
+  for (int attempt = 0; attempt < 100 && marker.exists(); attempt++) {
+   Thread.sleep(100);
+  }
+  Assert.assertFalse("the variants were not attempted", marker.exists());
+  try (Stream<Path> variants = Files.walk(new File(tmpFile, "variants")
+   .toPath())) {
+   Assert.assertTrue(variants.noneMatch(v -> v.getFileName().toString()
+    .startsWith(hash.toString())));
+  }
+ }
+
  @Test
  public void photoDownloadWithNonExistingPhoto() throws Exception {
   MvcResult mvcResult = this.mockMvc
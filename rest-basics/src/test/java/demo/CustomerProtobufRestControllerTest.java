@@ -16,20 +16,26 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @RunWith(SpringRunner.class)
+@Import({ CustomerVersions.class, CustomerRepresentationCache.class,
+ CustomerLinks.class })
 @WebMvcTest(CustomerProtobufRestController.class)
 public class CustomerProtobufRestControllerTest {
 
@@ -40,6 +46,9 @@ public class CustomerProtobufRestControllerTest {
  @MockBean
  private CustomerRepository customerRepository;
 
+ @MockBean
+ private CustomerBulkOperations customerBulkOperations;
+
  private Customer wellKnownCustomer = new Customer(1L, "Bruce", "Banner");
 
  @Autowired
@@ -83,7 +92,8 @@ public class CustomerProtobufRestControllerTest {
 
   Customer updated = new Customer(this.wellKnownCustomer.getId(), fn, ln);
 
-  given(this.customerRepository.save(updated)).willReturn(updated);
+  given(this.customerRepository.updateNames(existing.getId(), fn, ln, null))
+   .willReturn(2L);
   given(this.customerRepository.findById(this.wellKnownCustomer.getId()))
    .willReturn(Optional.of(updated));
 
@@ -149,6 +159,103 @@ public class CustomerProtobufRestControllerTest {
   assertCustomerEquals(customer, this.wellKnownCustomer);
  }
 
+ @Test
+ public void getCustomersByIds() throws Exception {
+  Customer other = new Customer(this.wellKnownCustomer.getId() + 1, "A", "B");
+  List<Long> ids = Arrays.asList(other.getId(), 42L,
+   this.wellKnownCustomer.getId());
+  given(this.customerRepository.findByIds(ids)).willReturn(
+   Arrays.asList(this.wellKnownCustomer, other));
+
+  MvcResult mvcResult = this.mockMvc
+   .perform(
+    get(this.rootPath).param("ids", "2,42,1").accept(this.protobufMediaType))
+   .andExpect(status().isOk())
+   .andExpect(
+    header().string(CustomerProtobufRestController.MISSING_IDS_HEADER, "42"))
+   .andReturn();
+  CustomerProtos.Customers customers = CustomerProtos.Customers
+   .parseFrom(mvcResult.getResponse().getContentAsByteArray());
+  assertEquals(2, customers.getCustomerCount());
+  assertCustomerEquals(customers.getCustomer(0), other);
+  assertCustomerEquals(customers.getCustomer(1), this.wellKnownCustomer);
+ }
+
+ @Test
+ public void getCustomersDelimited() throws Exception {
+  List<Customer> customers = Arrays.asList(this.wellKnownCustomer,
+   new Customer(this.wellKnownCustomer.getId() + 1, "A", "B"));
+  given(this.customerBulkOperations.export(any())).willAnswer(invocation -> {
+   CustomerBulkOperations.CustomerWriter writer = invocation.getArgumentAt(0,
+    CustomerBulkOperations.CustomerWriter.class);
+   for (Customer customer : customers) {
+    writer.write(customer);
+   }
+   return (long) customers.size();
+  });
+
+  MvcResult mvcResult = this.mockMvc
+   .perform(
+    get(this.rootPath).accept(
+     CustomerProtobufRestController.PROTOBUF_DELIMITED))
+   .andExpect(request().asyncStarted()).andReturn();
+
+  byte[] body = this.mockMvc.perform(asyncDispatch(mvcResult))
+   .andExpect(status().isOk()).andReturn().getResponse()
+   .getContentAsByteArray();
+
+  List<CustomerProtos.Customer> decoded = new ArrayList<>();
+  try (ByteArrayInputStream in = new ByteArrayInputStream(body)) {
+   CustomerProtos.Customer customer;
+   while ((customer = CustomerProtos.Customer.parseDelimitedFrom(in)) != null) {
+    decoded.add(customer);
+   }
+  }
+  assertEquals(customers.size(), decoded.size());
+  assertCustomerEquals(decoded.get(0), this.wellKnownCustomer);
+ }
+
+ @Test
+ public void getCustomerFieldsLinksTheNextPage() throws Exception {
+  given(
+   this.customerRepository.findFields(Collections.singleton("firstName"),
+    null, null, 3)).willReturn(
+   Arrays.asList(new CustomerProjection(1L, "A", null), new CustomerProjection(
+    2L, "B", null), new CustomerProjection(3L, "C", null)));
+
+  MvcResult mvcResult = this.mockMvc
+   .perform(
+    get(this.rootPath + "?fields=firstName&limit=2").accept(
+     this.protobufMediaType)).andExpect(status().isOk())
+   .andExpect(header().string("Link", containsString("after=2")))
+   .andExpect(header().string("Link", containsString("rel=\"next\"")))
+   .andReturn();
+  assertEquals(2, CustomerProtos.Customers
+   .parseFrom(mvcResult.getResponse().getContentAsByteArray())
+   .getCustomerCount());
+ }
+
+ @Test
+ public void ingestCustomers() throws Exception {
+  byte[] body;
+  try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+   CustomerProtos.Customer.newBuilder().setFirstName("A").setLastName("B")
+    .build().writeDelimitedTo(out);
+   CustomerProtos.Customer.newBuilder().setFirstName("C").setLastName("D")
+    .build().writeDelimitedTo(out);
+   body = out.toByteArray();
+  }
+  given(this.customerBulkOperations.ingest(any())).willReturn(
+   new CustomerIngestSummary(2, 1, 0));
+
+  this.mockMvc
+   .perform(
+    post(this.rootPath + "ingest").contentType(
+     CustomerProtobufRestController.PROTOBUF_DELIMITED).content(body))
+   .andExpect(status().isOk());
+  BDDMockito.verify(this.customerBulkOperations).ingest(any());
+ }
+
  private void assertCustomerEquals(CustomerProtos.Customer customerProtobuf,
   Customer jpaCustomer) {
   assertEquals(jpaCustomer.getFirstName(), customerProtobuf.getFirstName());
@@ -7,34 +7,53 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
 import static demo.TestUtils.lambaMatcher;
 import static org.hamcrest.Matchers.*;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @RunWith(SpringRunner.class)
+@Import({ CustomerVersions.class, CustomerRepresentationCache.class,
+ CustomerNameIndex.class, CustomerSearchIndex.class, CustomerLinks.class })
 @WebMvcTest(CustomerRestController.class)
 public class CustomerRestControllerTest {
 
  @MockBean
  private CustomerRepository customerRepository;
 
+ @MockBean
+ private CustomerBulkOperations customerBulkOperations;
+
  @Autowired
  private MockMvc mockMvc;
 
  @Autowired
  private ObjectMapper objectMapper;
 
+ @Autowired
+ private CustomerVersions customerVersions;
+
+ @Autowired
+ private CustomerNameIndex customerNameIndex;
+
  private MediaType jsonContentType = MediaType
   .parseMediaType("application/json;charset=UTF-8");
 
@@ -62,17 +81,55 @@ public class CustomerRestControllerTest {
   List<Customer> customers = Arrays.asList(this.wellKnownCustomer,
    new Customer(this.wellKnownCustomer.getId() + 1, "A", "B"));
 
-  given(this.customerRepository.findAll()).willReturn(customers);
+  given(
+   this.customerRepository.findByIdGreaterThanOrderByIdAsc(eq(0L),
+    any(Pageable.class))).willReturn(customers);
 
   this.mockMvc
    .perform(get(this.rootPath).accept(jsonContentType))
    .andExpect(status().isOk())
    .andExpect(content().contentType(jsonContentType))
+   .andExpect(header().doesNotExist("Link"))
    .andExpect(
     jsonPath("$",
      hasSize(lambaMatcher("the count should be >= 1", (Integer i) -> i >= 1))));
  }
 
+ @Test
+ public void testGetCollectionWithCursor() throws Exception {
+
+  List<Customer> customers = Arrays.asList(new Customer(2L, "A", "B"),
+   new Customer(3L, "C", "D"));
+
+  given(
+   this.customerRepository.findByIdGreaterThanOrderByIdAsc(eq(1L),
+    any(Pageable.class))).willReturn(customers);
+
+  this.mockMvc
+   .perform(get(this.rootPath + "?after=1&limit=1").accept(jsonContentType))
+   .andExpect(status().isOk())
+   .andExpect(jsonPath("$", hasSize(1)))
+   .andExpect(jsonPath("$[0].id", is(2)))
+   .andExpect(
+    header().string("Link",
+     "<http://localhost/v1/customers?after=2&limit=1>; rel=\"next\""));
+ }
+
+ @Test
+ public void testGetByIds() throws Exception {
+  given(this.customerRepository.findByIds(Arrays.asList(1L, 42L))).willReturn(
+   Arrays.asList(this.wellKnownCustomer));
+
+  this.mockMvc
+   .perform(get(this.rootPath + "?ids=1,42").accept(jsonContentType))
+   .andExpect(status().isOk())
+   .andExpect(jsonPath("$.customers", hasSize(1)))
+   .andExpect(
+    jsonPath("$.customers[0].lastName",
+     is(this.wellKnownCustomer.getLastName())))
+   .andExpect(jsonPath("$.missing[0]", is(42)));
+ }
+
  @Test
  public void testGet() throws Exception {
   this.mockMvc
@@ -86,6 +143,97 @@ public class CustomerRestControllerTest {
    .andExpect(jsonPath("$.lastName", is(this.wellKnownCustomer.getLastName())));
  }
 
+ @Test
+ public void testConditionalGet() throws Exception {
+  Customer versioned = new Customer(7L, "Tony", "Stark");
+  ReflectionTestUtils.setField(versioned, "version", 3L);
+  this.customerVersions.changed(CustomerChangedEvent.saved(versioned));
+
+  this.mockMvc
+   .perform(
+    get(this.rootPath + "/" + versioned.getId()).header("If-None-Match",
+     "\"3\"")).andExpect(status().isNotModified())
+   .andExpect(header().string("ETag", "\"3\""));
+ }
+
+ @Test
+ public void testConditionalGetOfDeletedCustomer() throws Exception {
+  Customer versioned = new Customer(9L, "Peter", "Parker");
+  ReflectionTestUtils.setField(versioned, "version", 2L);
+  this.customerVersions.changed(CustomerChangedEvent.saved(versioned));
+  this.customerVersions.changed(CustomerChangedEvent.deleted(versioned.getId()));
+  given(this.customerRepository.findVersionById(versioned.getId()))
+   .willReturn(null);
+
+  this.mockMvc.perform(
+   get(this.rootPath + "/" + versioned.getId()).header("If-None-Match", "\"2\""))
+   .andExpect(status().isNotFound());
+ }
+
+ @Test
+ public void testGetServedFromRepresentationCache() throws Exception {
+  Customer versioned = new Customer(8L, "Natasha", "Romanoff");
+  ReflectionTestUtils.setField(versioned, "version", 5L);
+  given(this.customerRepository.findById(versioned.getId())).willReturn(
+   Optional.of(versioned));
+  this.customerVersions.changed(CustomerChangedEvent.saved(versioned));
+
+  for (int i = 0; i < 2; i++) {
+   this.mockMvc
+    .perform(get(this.rootPath + "/" + versioned.getId()).accept(jsonContentType))
+    .andExpect(status().isOk())
+    .andExpect(content().contentType(jsonContentType))
+    .andExpect(header().string("ETag", "\"5\""))
+    .andExpect(jsonPath("$.firstName", is(versioned.getFirstName())));
+  }
+  verify(this.customerRepository, times(1)).findById(versioned.getId());
+ }
+
+ @Test
+ public void testSuggest() throws Exception {
+  this.customerNameIndex.index(new Customer(11L, "Bruce", "Wayne"));
+  this.customerNameIndex.index(new Customer(12L, "Wade", "Wilson"));
+  this.customerNameIndex.index(new Customer(13L, "Barbara", "Gordon"));
+
+  this.mockMvc.perform(get(this.rootPath + "/suggest?q=W"))
+   .andExpect(status().isOk())
+   .andExpect(jsonPath("$[*].id", contains(12, 11)));
+  this.mockMvc.perform(get(this.rootPath + "/suggest?q=bruce w"))
+   .andExpect(status().isOk())
+   .andExpect(jsonPath("$[*].id", contains(11)));
+  this.mockMvc.perform(get(this.rootPath + "/suggest?q=b&limit=1"))
+   .andExpect(status().isOk())
+   .andExpect(jsonPath("$[*].id", contains(13)));
+ }
+
+ @Test
+ public void testGetFields() throws Exception {
+  given(
+   this.customerRepository.findFieldsById(eq(this.wellKnownCustomer.getId()),
+    any())).willReturn(
+   Optional.of(new CustomerProjection(this.wellKnownCustomer.getId(), null,
+    this.wellKnownCustomer.getLastName())));
+
+  this.mockMvc
+   .perform(
+    get(this.rootPath + "/" + this.wellKnownCustomer.getId() + "?fields=lastName")
+     .accept(jsonContentType))
+   .andExpect(status().isOk())
+   .andExpect(jsonPath("$.id", is(this.wellKnownCustomer.getId().intValue())))
+   .andExpect(jsonPath("$.firstName").doesNotExist())
+   .andExpect(jsonPath("$.lastName", is(this.wellKnownCustomer.getLastName())));
+ }
+
+ @Test
+ public void testGetUnknownFields() throws Exception {
+  given(this.customerRepository.findFields(any(), any(), any(), anyInt()))
+   .willThrow(new CustomerBadRequestException("unknown-fields [nope]"));
+
+  this.mockMvc.perform(
+   get(this.rootPath + "?fields=nope").accept(jsonContentType)).andExpect(
+   status().isBadRequest());
+ }
+
  @Test
  public void testPost() throws Exception {
   Customer customer = new Customer("Peter", "Parker");
@@ -98,15 +246,42 @@ public class CustomerRestControllerTest {
    .perform(
     post(this.rootPath).contentType(this.jsonContentType).content(customerJSON))
    .andExpect(status().isCreated())
-   .andExpect(header().string("Location", notNullValue()));
+   .andExpect(header().string("Location", "http://localhost/v1/customers/2"));
+ }
+
+ @Test
+ public void testPostBatch() throws Exception {
+  List<Customer> customers = Arrays.asList(new Customer("Peter", "Parker"),
+   new Customer("Mary Jane", "Watson"));
+  given(this.customerRepository.save(customers)).willReturn(
+   Arrays.asList(new Customer(2L, "Peter", "Parker"), new Customer(3L,
+    "Mary Jane", "Watson")));
+
+  this.mockMvc
+   .perform(
+    post(this.rootPath + "/batch").contentType(this.jsonContentType).content(
+     this.objectMapper.writeValueAsString(customers)))
+   .andExpect(status().isCreated()).andExpect(jsonPath("$", hasSize(2)))
+   .andExpect(jsonPath("$[0]", is(2))).andExpect(jsonPath("$[1]", is(3)));
  }
 
  @Test
  public void testDelete() throws Exception {
+  given(
+   this.customerRepository.deleteWithoutLoading(this.wellKnownCustomer
+    .getId())).willReturn(1);
   this.mockMvc.perform(
    delete(this.rootPath + "/" + this.wellKnownCustomer.getId()).contentType(
     this.jsonContentType)).andExpect(status().isNoContent());
-  verify(this.customerRepository).delete(this.wellKnownCustomer);
+  verify(this.customerRepository).deleteWithoutLoading(
+   this.wellKnownCustomer.getId());
+ }
+
+ @Test
+ public void testDeleteUnknown() throws Exception {
+  this.mockMvc.perform(
+   delete(this.rootPath + "/42").contentType(this.jsonContentType))
+   .andExpect(status().isNotFound());
  }
 
  @Test
@@ -125,7 +300,8 @@ public class CustomerRestControllerTest {
   String fn = "Peter", ln = "Parker";
   Customer existing = this.wellKnownCustomer;
   Customer updated = new Customer(existing.getId(), fn, ln);
-  given(this.customerRepository.save(updated)).willReturn(updated);
+  given(this.customerRepository.updateNames(existing.getId(), fn, ln, null))
+   .willReturn(2L);
 
   String content = "{ \"id\": \"" + existing.getId() + "\", \"firstName\": \""
    + fn + "\", \"lastName\": \"" + ln + "\" }";
@@ -133,7 +309,8 @@ public class CustomerRestControllerTest {
   this.mockMvc
    .perform(put(idPath).contentType(jsonContentType).content(content))
    .andExpect(status().isCreated())
-   .andExpect(header().string("Location", notNullValue()));
+   .andExpect(header().string("Location", notNullValue()))
+   .andExpect(header().string("ETag", "\"2\""));
 
   given(this.customerRepository.findById(this.wellKnownCustomer.getId()))
    .willReturn(Optional.of(updated));
@@ -143,4 +320,55 @@ public class CustomerRestControllerTest {
 
  }
 
+ @Test
+ public void testPutWithStaleIfMatch() throws Exception {
+  given(
+   this.customerRepository.updateNames(this.wellKnownCustomer.getId(),
+    "Peter", "Parker", 3L)).willReturn(0L);
+  given(this.customerRepository.exists(this.wellKnownCustomer.getId()))
+   .willReturn(true);
+
+  this.mockMvc
+   .perform(
+    put(this.rootPath + "/" + this.wellKnownCustomer.getId())
+     .contentType(jsonContentType).header("If-Match", "\"3\"")
+     .content("{ \"firstName\": \"Peter\", \"lastName\": \"Parker\" }"))
+   .andExpect(status().isPreconditionFailed());
+ }
+
+ @Test
+ public void testPatch() throws Exception {
+  Customer patched = new Customer(this.wellKnownCustomer.getId(),
+   this.wellKnownCustomer.getFirstName(), "Hulk");
+  given(
+   this.customerRepository.patch(this.wellKnownCustomer.getId(),
+    Collections.singletonMap("lastName", "Hulk"))).willReturn(1);
+  given(this.customerRepository.findById(this.wellKnownCustomer.getId()))
+   .willReturn(Optional.of(patched));
+
+  this.mockMvc
+   .perform(
+    patch(this.rootPath + "/" + this.wellKnownCustomer.getId()).contentType(
+     CustomerRestController.MERGE_PATCH_JSON_VALUE).content(
+     "{ \"lastName\": \"Hulk\" }"))
+   .andExpect(status().isOk())
+   .andExpect(
+    jsonPath("$.firstName", is(this.wellKnownCustomer.getFirstName())))
+   .andExpect(jsonPath("$.lastName", is("Hulk")));
+ }
+
+ @Test
+ public void testPatchOfAnImmutableField() throws Exception {
+  given(
+   this.customerRepository.patch(this.wellKnownCustomer.getId(),
+    Collections.singletonMap("id", 2))).willThrow(
+   new CustomerBadRequestException("unknown-or-immutable-field id"));
+
+  this.mockMvc
+   .perform(
+    patch(this.rootPath + "/" + this.wellKnownCustomer.getId()).contentType(
+     CustomerRestController.MERGE_PATCH_JSON_VALUE).content("{ \"id\": 2 }"))
+   .andExpect(status().isBadRequest());
+ }
+
 }
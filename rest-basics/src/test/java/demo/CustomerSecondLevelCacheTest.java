@@ -0,0 +1,124 @@
+package demo;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.EntityManagerFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that lookups by id and by name are answered from the second-level
+ * and query caches, and that writes through {@link CustomerRepository}
+ * invalidate them.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+ "spring.jpa.properties.hibernate.cache.use_second_level_cache=true",
+ "spring.jpa.properties.hibernate.cache.use_query_cache=true",
+ "spring.jpa.properties.hibernate.cache.region.factory_class=org.hibernate.cache.ehcache.SingletonEhCacheRegionFactory",
+ "spring.jpa.properties.javax.persistence.sharedCache.mode=ENABLE_SELECTIVE",
+ "spring.jpa.properties.hibernate.generate_statistics=true" })
+public class CustomerSecondLevelCacheTest {
+
+ @Autowired
+ private CustomerRepository customerRepository;
+
+ @Autowired
+ private EntityManagerFactory entityManagerFactory;
+
+ private Statistics statistics;
+
+ private Customer customer;
+
+ @Before
+ public void before() {
+  this.customer = this.customerRepository.save(new Customer("Clark", "Kent"));
+  this.statistics = this.entityManagerFactory.unwrap(SessionFactory.class)
+   .getStatistics();
+ }
+
+ @After
+ public void after() {
+  this.customerRepository.deleteWithoutLoading(this.customer.getId());
+ }
+
+ @Test
+ public void findByIdIsServedFromTheCache() {
+  this.customerRepository.findById(this.customer.getId());
+  this.statistics.clear();
+
+  assertTrue(this.customerRepository.findById(this.customer.getId())
+   .isPresent());
+  assertEquals(0, this.statistics.getPrepareStatementCount());
+  assertEquals(1, this.statistics.getSecondLevelCacheStatistics(
+   Customer.CACHE_REGION).getHitCount());
+ }
+
+ @Test
+ public void findByNameIsServedFromTheQueryCache() {
+  this.customerRepository.findByLastNameIgnoreCase("KENT");
+  this.statistics.clear();
+
+  assertEquals(1, this.customerRepository.findByLastNameIgnoreCase("KENT")
+   .size());
+  assertEquals(1, this.statistics.getQueryCacheHitCount());
+  assertEquals(0, this.statistics.getPrepareStatementCount());
+ }
+
+ @Test
+ public void updatesInvalidateTheCaches() {
+  this.customerRepository.findById(this.customer.getId());
+  this.customerRepository.findByLastNameIgnoreCase("kent");
+
+  this.customerRepository.updateNames(this.customer.getId(), "Clark",
+   "Super", null);
+
+  assertTrue(this.customerRepository.findByLastNameIgnoreCase("kent")
+   .isEmpty());
+  assertEquals("Super",
+   this.customerRepository.findById(this.customer.getId()).get()
+    .getLastName());
+ }
+
+ @Test
+ public void deletesInvalidateTheCaches() {
+  this.customerRepository.findById(this.customer.getId());
+  this.customerRepository.findByLastNameIgnoreCase("kent");
+
+  this.customerRepository.deleteWithoutLoading(this.customer.getId());
+
+  assertTrue(this.customerRepository.findByLastNameIgnoreCase("kent")
+   .isEmpty());
+  assertFalse(this.customerRepository.findById(this.customer.getId())
+   .isPresent());
+ }
+
+ @Test
+ public void writesEvictOnlyTheirOwnCustomer() {
+  Customer other = this.customerRepository.save(new Customer("Lois", "Lane"));
+  try {
+   this.customerRepository.findById(other.getId());
+   this.customerRepository.updateNames(this.customer.getId(), "Clark",
+    "Super", null);
+   this.statistics.clear();
+
+   assertTrue(this.customerRepository.findById(other.getId()).isPresent());
+   assertEquals(0, this.statistics.getPrepareStatementCount());
+   assertEquals(1, this.statistics.getSecondLevelCacheStatistics(
+    Customer.CACHE_REGION).getHitCount());
+  }
+  finally {
+   this.customerRepository.deleteWithoutLoading(other.getId());
+  }
+ }
+}
@@ -0,0 +1,125 @@
+package demo;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.hateoas.MediaTypes;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Counts the JDBC statements each write endpoint prepares, so that a
+ * redundant select sneaking back into a write path fails the build.
+ */
+@RunWith(SpringRunner.class)
+@AutoConfigureMockMvc
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.MOCK, properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+public class CustomerWriteStatementCountTest {
+
+ @Autowired
+ private MockMvc mockMvc;
+
+ @Autowired
+ private CustomerRepository customerRepository;
+
+ @Autowired
+ private EntityManagerFactory entityManagerFactory;
+
+ private Statistics statistics;
+
+ private Customer customer;
+
+ @Before
+ public void before() {
+  this.customer = this.customerRepository.save(new Customer("Bruce", "Wayne"));
+  this.statistics = this.entityManagerFactory.unwrap(SessionFactory.class)
+   .getStatistics();
+  this.statistics.clear();
+ }
+
+ @Test
+ public void putV1() throws Exception {
+  this.mockMvc.perform(
+   put("/v1/customers/{id}", this.customer.getId()).contentType(
+    MediaType.APPLICATION_JSON).content(
+    "{\"firstName\":\"Dick\",\"lastName\":\"Grayson\"}")).andExpect(
+   status().isCreated());
+  // without If-Match the new version is read back for the ETag
+  assertStatements(2);
+ }
+
+ @Test
+ public void conditionalPutV1() throws Exception {
+  this.mockMvc.perform(
+   put("/v1/customers/{id}", this.customer.getId()).contentType(
+    MediaType.APPLICATION_JSON).header("If-Match",
+    "\"" + this.customer.getVersion() + "\"").content(
+    "{\"firstName\":\"Dick\",\"lastName\":\"Grayson\"}")).andExpect(
+   status().isCreated());
+  assertStatements(1);
+ }
+
+ @Test
+ public void putV2() throws Exception {
+  this.mockMvc.perform(
+   put("/v2/customers/{id}", this.customer.getId()).contentType(
+    MediaTypes.HAL_JSON).content(
+    "{\"firstName\":\"Dick\",\"lastName\":\"Grayson\"}")).andExpect(
+   status().isCreated());
+  assertStatements(2);
+ }
+
+ @Test
+ public void putProtobuf() throws Exception {
+  byte[] body;
+  try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+   CustomerProtos.Customer.newBuilder().setFirstName("Dick")
+    .setLastName("Grayson").build().writeTo(out);
+   body = out.toByteArray();
+  }
+  this.mockMvc.perform(
+   put("/v1/protos/customers/{id}", this.customer.getId()).contentType(
+    MediaType.parseMediaType("application/x-protobuf")).content(body))
+   .andExpect(status().isCreated());
+  assertStatements(2);
+ }
+
+ @Test
+ public void deleteV1() throws Exception {
+  this.mockMvc.perform(delete("/v1/customers/{id}", this.customer.getId()))
+   .andExpect(status().isNoContent());
+  assertStatements(1);
+ }
+
+ @Test
+ public void deleteV2() throws Exception {
+  this.mockMvc.perform(delete("/v2/customers/{id}", this.customer.getId()))
+   .andExpect(status().isNoContent());
+  assertStatements(1);
+ }
+
+ @Test
+ public void deleteUnknown() throws Exception {
+  this.mockMvc.perform(delete("/v1/customers/{id}", 0))
+   .andExpect(status().isNotFound());
+  assertStatements(1);
+ }
+
+ private void assertStatements(long expected) {
+  assertEquals(expected, this.statistics.getPrepareStatementCount());
+ }
+}
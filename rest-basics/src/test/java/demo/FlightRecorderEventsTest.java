@@ -0,0 +1,98 @@
+package demo;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.converter.protobuf.ProtobufHttpMessageConverter;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.util.ClassUtils;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.BDDMockito.given;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Records a protobuf request with Flight Recorder and looks for the events of
+ * its stages. Skipped on a JVM without Flight Recorder, where the events
+ * record nothing.
+ */
+@RunWith(SpringRunner.class)
+@Import({ CustomerVersions.class, CustomerRepresentationCache.class,
+ CustomerLinks.class })
+@WebMvcTest(CustomerProtobufRestController.class)
+public class FlightRecorderEventsTest {
+
+ @MockBean
+ private CustomerRepository customerRepository;
+
+ @MockBean
+ private CustomerBulkOperations customerBulkOperations;
+
+ @Autowired
+ private MockMvc mockMvc;
+
+ @BeforeClass
+ public static void flightRecorder() {
+  assumeTrue(ClassUtils.isPresent("jdk.jfr.Event", null));
+ }
+
+ @Test
+ public void getCustomerByIdEmitsFlightRecorderEvents() throws Exception {
+  Customer existing = new Customer(1L, "Bruce", "Banner");
+  given(this.customerRepository.findById(existing.getId())).willReturn(
+   Optional.of(existing));
+
+  List<RecordedEvent> events;
+  try (Recording recording = new Recording()) {
+   recording.enable("demo.RepresentationMapping");
+   recording.enable("demo.MessageConversion");
+   recording.start();
+   this.mockMvc.perform(
+    get("/v1/protos/customers/" + existing.getId()).accept(
+     ProtobufHttpMessageConverter.PROTOBUF)).andExpect(status().isOk());
+   recording.stop();
+   Path dump = Files.createTempFile("customers", ".jfr");
+   try {
+    recording.dump(dump);
+    events = RecordingFile.readAllEvents(dump);
+   }
+   finally {
+    Files.delete(dump);
+   }
+  }
+  List<String> names = events.stream()
+   .filter(e -> e.getLong("customerId") == existing.getId())
+   .map(e -> e.getEventType().getName()).collect(Collectors.toList());
+  assertTrue(names.toString(), names.contains("demo.RepresentationMapping"));
+  assertTrue(names.toString(), names.contains("demo.MessageConversion"));
+ }
+
+ @Configuration
+ @Import(Application.class)
+ public static class FlightRecorderConfiguration {
+
+  @Bean
+  ProtobufHttpMessageConverter protobufHttpMessageConverter() {
+   return new ProtobufHttpMessageConverter();
+  }
+ }
+}
@@ -79,8 +79,18 @@ public class HypermediaApiDocumentation {
      "customers-list-example",
      responseFields(
       fieldWithPath("_links.self.href").description("A link to the Customers"),
+      fieldWithPath("_links.first.href").description(
+       "A link to the first page of Customers"),
+      fieldWithPath("_links.next.href").description(
+       "A link to the next page of Customers, if there is one").optional(),
+      fieldWithPath("_links.prev.href").description(
+       "A link to the previous page of Customers, if there is one")
+       .optional(),
       fieldWithPath("_embedded.customers").description(
-       "An array of <<resources-customer, Customer resources>>"))));
+       "An array of <<resources-customer, Customer resources>>"),
+      fieldWithPath("page").description(
+       "The size, number, total elements and total pages of this page, "
+        + "with `withTotal=true`").optional())));
  }
 
  @Test
@@ -5,6 +5,8 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Pageable;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
@@ -12,24 +14,33 @@ import java.util.Arrays;
 
 import static demo.TestUtils.lambaMatcher;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @RunWith(SpringRunner.class)
+@Import({ CustomerVersions.class, CustomerRepresentationCache.class,
+ CustomerNameIndex.class, CustomerSearchIndex.class, CustomerLinks.class })
 @WebMvcTest(controllers = CustomerRestController.class)
 public class JsonpTest {
 
  @MockBean
  private CustomerRepository customerRepository;
 
+ @MockBean
+ private CustomerBulkOperations customerBulkOperations;
+
  @Autowired
  private MockMvc mockMvc;
 
  @Test
  public void testJsonpCallbacks() throws Throwable {
 
-  given(this.customerRepository.findAll()).willReturn(
+  given(
+   this.customerRepository.findByIdGreaterThanOrderByIdAsc(eq(0L),
+    any(Pageable.class))).willReturn(
    Arrays.asList(new Customer(1L, "A1", "B1"), new Customer(2L, "A2", "B2")));
 
   String callbackName = "callMeMaybe";
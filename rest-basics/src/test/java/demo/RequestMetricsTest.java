@@ -0,0 +1,66 @@
+package demo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(controllers = VersionedRestController.class)
+public class RequestMetricsTest {
+
+ @MockBean
+ private CustomerRepository customerRepository;
+
+ @Autowired
+ private MockMvc mockMvc;
+
+ @Autowired
+ private RequestMetrics requestMetrics;
+
+ @Test
+ public void requestsAreTaggedByMediaTypeAndVersion() throws Throwable {
+  this.mockMvc.perform(get("/api/v1/hi"));
+  this.mockMvc.perform(get("/api/hi").header("X-API-Version", "v2"));
+  this.mockMvc.perform(get("/api/hi").header("X-API-Version", "v2"));
+  this.mockMvc.perform(get("/api/hi").accept(
+   MediaType.parseMediaType(VersionedRestController.V2_MEDIA_TYPE_VALUE)));
+  this.mockMvc.perform(get("/api/hi").header("X-API-Version", "v7"));
+  this.mockMvc.perform(get("/api/hi").header("X-API-Version", "latest"));
+
+  Map<String, Number> metrics = this.requestMetrics.metrics().stream()
+   .collect(Collectors.toMap(Metric::getName, Metric::getValue));
+  assertEquals(1L, metrics.get("http.requests[handler=VersionedRestController"
+   + ".greetWithPathVariable,media-type=application/json,version=v1,"
+   + "versioning=path,status=200].count"));
+  assertEquals(2L, metrics.get("http.requests[handler=VersionedRestController"
+   + ".greetWithHeader,media-type=application/json,version=v2,"
+   + "versioning=header,status=200].count"));
+  String negotiated = "http.requests[handler=VersionedRestController"
+   + ".greetWithContentNegotiationV2,media-type="
+   + VersionedRestController.V2_MEDIA_TYPE_VALUE
+   + ",version=v2,versioning=media-type,status=200]";
+  assertEquals(1L, metrics.get(negotiated + ".count"));
+  assertTrue(metrics.get(negotiated + ".response-bytes.max").doubleValue() > 0);
+  assertTrue(metrics.containsKey(negotiated + ".latency.p99"));
+  // unknown versions share one series
+  assertEquals(2L, metrics.entrySet().stream()
+   .filter(e -> e.getKey().contains("version=other,versioning=header"))
+   .filter(e -> e.getKey().endsWith(".count"))
+   .mapToLong(e -> e.getValue().longValue()).sum());
+  assertTrue(metrics.keySet().stream()
+   .noneMatch(name -> name.contains("v7") || name.contains("latest")));
+ }
+}
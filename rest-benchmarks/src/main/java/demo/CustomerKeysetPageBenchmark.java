@@ -0,0 +1,97 @@
+package demo;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * Fetches one page of {@code GET /v1/customers?after=...&limit=100} from the
+ * application, backed by H2 with {@code rows} customers, at the start and at
+ * the end of the table. The time and the allocation per operation (reported
+ * by {@code -prof gc}) should stay flat from 10k to 10M rows: a page is a
+ * range scan of the primary key, however many rows precede it.
+ * <p>
+ * Run {@link #main(String[])} (or {@code java -jar target/benchmarks.jar
+ * CustomerKeysetPageBenchmark -prof gc}); the 10M row table needs a few
+ * gigabytes of heap and a minute or so to fill.
+ */
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class CustomerKeysetPageBenchmark {
+
+ private static final int PAGE_SIZE = 100;
+
+ // the ids the application hands out itself stay below this
+ private static final long FIRST_ID = 1_000_000L;
+
+ @Param({ "10000", "1000000", "10000000" })
+ private long rows;
+
+ @Param({ "start", "end" })
+ private String position;
+
+ private ConfigurableApplicationContext context;
+
+ private MockMvc mockMvc;
+
+ private String page;
+
+ public static void main(String[] args) throws RunnerException {
+  new Runner(new OptionsBuilder()
+   .include(CustomerKeysetPageBenchmark.class.getSimpleName())
+   .addProfiler(GCProfiler.class).resultFormat(ResultFormatType.JSON)
+   .result("target/keyset-pages.json").build()).run();
+ }
+
+ @Setup
+ public void setUp() throws Exception {
+  this.context = new SpringApplicationBuilder(Application.class).properties(
+   "server.port=0", "logging.level.root=WARN").run();
+  // filled by H2 itself: going through JPA would take hours for 10M rows
+  this.context.getBean(JdbcTemplate.class).update(
+   "insert into customer (id, first_name, last_name, first_name_lower, "
+    + "last_name_lower, version) select x, 'First' || x, 'Last' || x, "
+    + "'first' || x, 'last' || x, 0 from system_range(?, ?)", FIRST_ID,
+   FIRST_ID + this.rows - 1);
+  this.mockMvc = MockMvcBuilders.webAppContextSetup(
+   (WebApplicationContext) this.context).build();
+  long after = this.position.equals("start") ? FIRST_ID - 1 : FIRST_ID
+   + this.rows - 1 - PAGE_SIZE;
+  this.page = String.format("/v1/customers?after=%s&limit=%s", after,
+   PAGE_SIZE);
+  MvcResult result = page();
+  if (result.getResponse().getStatus() != 200
+   || !result.getResponse().getContentAsString().contains("Last" + (after + 1))) {
+   throw new IllegalStateException("unexpected page " + this.page + ": "
+    + result.getResponse().getContentAsString());
+  }
+ }
+
+ @TearDown
+ public void tearDown() {
+  this.context.close();
+ }
+
+ @Benchmark
+ public MvcResult page() throws Exception {
+  return this.mockMvc.perform(get(this.page)).andReturn();
+ }
+}
@@ -0,0 +1,91 @@
+package demo;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.Resource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+//@formatter:off
+import org.springframework.web.servlet.mvc.method
+        .annotation.MvcUriComponentsBuilder;
+//@formatter:on
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of assembling one page of {@code /v2/customers}: each
+ * operation binds a fresh request, like the servlet container does, and turns
+ * {@code pageSize} customers into resources with self and profile-photo
+ * links. Divide by {@code pageSize} for the cost per resource.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CustomerLinksBenchmark {
+
+ @Param({ "1", "20", "100" })
+ private int pageSize;
+
+ private List<Customer> customers;
+
+ private CustomerResourceAssembler assembler;
+
+ @Setup
+ public void setUp() {
+  this.assembler = new CustomerResourceAssembler(new CustomerLinks());
+  this.customers = new ArrayList<>(this.pageSize);
+  for (long id = 1; id <= this.pageSize; id++) {
+   this.customers.add(new Customer(id, "Jane", "Doe"));
+  }
+ }
+
+ @TearDown
+ public void tearDown() {
+  RequestContextHolder.resetRequestAttributes();
+ }
+
+ // what CustomerResourceAssembler did before it used CustomerLinks
+ @Benchmark
+ public void methodCall(Blackhole blackhole) {
+  bindRequest();
+  for (Customer customer : this.customers) {
+   Resource<Customer> resource = new Resource<>(customer);
+   URI photoUri = MvcUriComponentsBuilder
+    .fromMethodCall(
+     MvcUriComponentsBuilder.on(CustomerProfilePhotoRestController.class)
+      .read(customer.getId(), null, null, null)).buildAndExpand().toUri();
+   URI selfUri = MvcUriComponentsBuilder
+    .fromMethodCall(
+     MvcUriComponentsBuilder.on(CustomerHypermediaRestController.class).get(
+      customer.getId(), null, null)).buildAndExpand().toUri();
+   resource.add(new Link(selfUri.toString(), "self"));
+   resource.add(new Link(photoUri.toString(), "profile-photo"));
+   blackhole.consume(resource);
+  }
+ }
+
+ @Benchmark
+ public void precompiled(Blackhole blackhole) {
+  bindRequest();
+  for (Customer customer : this.customers) {
+   blackhole.consume(this.assembler.toResource(customer));
+  }
+ }
+
+ private static void bindRequest() {
+  MockHttpServletRequest request = new MockHttpServletRequest("GET",
+   "/v2/customers");
+  request.setServerName("customers.example.com");
+  RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(
+   request));
+ }
+}
@@ -0,0 +1,217 @@
+package demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.Message;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.ResolvableType;
+import org.springframework.hateoas.*;
+import org.springframework.hateoas.core.AnnotationRelProvider;
+import org.springframework.hateoas.core.DefaultRelProvider;
+import org.springframework.hateoas.core.DelegatingRelProvider;
+import org.springframework.hateoas.hal.Jackson2HalModule;
+import org.springframework.hateoas.mvc.TypeConstrainedMappingJackson2HttpMessageConverter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.converter.protobuf.ProtobufHttpMessageConverter;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.mock.http.MockHttpOutputMessage;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.plugin.core.OrderAwarePluginRegistry;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Encodes and decodes customers with the message converters the application
+ * uses for each representation: Jackson for v1 JSON, the HAL-configured
+ * Jackson converter for v2 {@code Resource<Customer>}s, and
+ * {@link ProtobufHttpMessageConverter} for {@link CustomerProtos} in binary,
+ * JSON and text format. {@code customers} is either {@code 1}, a single
+ * customer, or the size of a collection.
+ * <p>
+ * Run {@link #main(String[])} (or {@code java -jar target/benchmarks.jar
+ * CustomerRepresentationBenchmark -prof gc}) to also get the allocation rate
+ * per operation; the encoded sizes are printed during setup.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class CustomerRepresentationBenchmark {
+
+ private static final MediaType PROTOBUF_JSON = MediaType.APPLICATION_JSON,
+  PROTOBUF_TEXT = MediaType.TEXT_PLAIN;
+
+ @Param({ "json", "hal", "protobuf", "protobuf-json", "protobuf-text" })
+ private String format;
+
+ @Param({ "1", "10", "1000", "100000" })
+ private int customers;
+
+ private Encoder encoder;
+
+ private Decoder decoder;
+
+ public static void main(String[] args) throws RunnerException {
+  new Runner(new OptionsBuilder()
+   .include(CustomerRepresentationBenchmark.class.getSimpleName())
+   .addProfiler(GCProfiler.class).resultFormat(ResultFormatType.JSON)
+   .result("target/representations.json").build()).run();
+ }
+
+ @Setup
+ public void setUp() throws IOException {
+  List<Customer> customers = new ArrayList<>(this.customers);
+  for (long id = 1; id <= this.customers; id++) {
+   customers.add(new Customer(id, "Customer" + id, "Lastname" + id));
+  }
+  boolean single = (this.customers == 1);
+  switch (this.format) {
+   case "json":
+    jackson(new MappingJackson2HttpMessageConverter(Jackson2ObjectMapperBuilder
+     .json().build()), MediaType.APPLICATION_JSON, single ? customers.get(0)
+     : customers, single ? Customer.class : ResolvableType
+     .forClassWithGenerics(List.class, Customer.class).getType());
+    break;
+   case "hal":
+    hal(customers, single);
+    break;
+   case "protobuf":
+    protobuf(ProtobufHttpMessageConverter.PROTOBUF, customers, single);
+    break;
+   case "protobuf-json":
+    protobuf(PROTOBUF_JSON, customers, single);
+    break;
+   case "protobuf-text":
+    protobuf(PROTOBUF_TEXT, customers, single);
+    break;
+   default:
+    throw new IllegalArgumentException("unknown format " + this.format);
+  }
+  System.out.printf("%n%s x %s: %s bytes%n", this.format, this.customers,
+   this.encoder.encode().length);
+ }
+
+ @Benchmark
+ public byte[] encode() throws IOException {
+  return this.encoder.encode();
+ }
+
+ @Benchmark
+ public Object decode() throws IOException {
+  return this.decoder.decode();
+ }
+
+ private void jackson(MappingJackson2HttpMessageConverter converter,
+  MediaType mediaType, Object payload, Type type) throws IOException {
+  this.encoder = () -> {
+   MockHttpOutputMessage out = new MockHttpOutputMessage();
+   converter.write(payload, type, mediaType, out);
+   return out.getBodyAsBytes();
+  };
+  byte[] encoded = this.encoder.encode();
+  this.decoder = () -> converter.read(type, null, input(encoded, mediaType));
+ }
+
+ // the same converter and rel providers that @EnableHypermediaSupport sets up
+ private void hal(List<Customer> customers, boolean single) throws IOException {
+  ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+  mapper.registerModule(new Jackson2HalModule());
+  RelProvider relProvider = new DelegatingRelProvider(
+   OrderAwarePluginRegistry.create(Arrays.<RelProvider> asList(
+    new AnnotationRelProvider(), new DefaultRelProvider())));
+  mapper.setHandlerInstantiator(new Jackson2HalModule.HalHandlerInstantiator(
+   relProvider, null, null));
+  TypeConstrainedMappingJackson2HttpMessageConverter converter = new TypeConstrainedMappingJackson2HttpMessageConverter(
+   ResourceSupport.class);
+  converter.setSupportedMediaTypes(Collections
+   .singletonList(MediaTypes.HAL_JSON));
+  converter.setObjectMapper(mapper);
+
+  // the links are built for a request, as they are in the application
+  MockHttpServletRequest request = new MockHttpServletRequest("GET",
+   "/v2/customers");
+  RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(
+   request));
+  try {
+   CustomerResourceAssembler assembler = new CustomerResourceAssembler(
+    new CustomerLinks());
+   ResolvableType resource = ResolvableType.forClassWithGenerics(
+    Resource.class, Customer.class);
+   if (single) {
+    jackson(converter, MediaTypes.HAL_JSON,
+     assembler.toResource(customers.get(0)), resource.getType());
+   }
+   else {
+    Resources<Resource<Customer>> resources = new Resources<>(customers
+     .stream().map(assembler::toResource).collect(Collectors.toList()));
+    jackson(converter, MediaTypes.HAL_JSON, resources, ResolvableType
+     .forClassWithGenerics(Resources.class, resource).getType());
+   }
+  }
+  finally {
+   RequestContextHolder.resetRequestAttributes();
+  }
+ }
+
+ private void protobuf(MediaType mediaType, List<Customer> customers,
+  boolean single) throws IOException {
+  ProtobufHttpMessageConverter converter = new ProtobufHttpMessageConverter();
+  Message payload;
+  if (single) {
+   payload = toProtobuf(customers.get(0));
+  }
+  else {
+   CustomerProtos.Customers.Builder builder = CustomerProtos.Customers
+    .newBuilder();
+   customers.forEach(c -> builder.addCustomer(toProtobuf(c)));
+   payload = builder.build();
+  }
+  Class<? extends Message> type = payload.getClass();
+  this.encoder = () -> {
+   MockHttpOutputMessage out = new MockHttpOutputMessage();
+   converter.write(payload, mediaType, out);
+   return out.getBodyAsBytes();
+  };
+  byte[] encoded = this.encoder.encode();
+  this.decoder = () -> converter.read(type, input(encoded, mediaType));
+ }
+
+ private static CustomerProtos.Customer toProtobuf(Customer customer) {
+  return CustomerProtos.Customer.newBuilder().setId(customer.getId())
+   .setFirstName(customer.getFirstName()).setLastName(customer.getLastName())
+   .build();
+ }
+
+ private static MockHttpInputMessage input(byte[] body, MediaType mediaType) {
+  MockHttpInputMessage input = new MockHttpInputMessage(body);
+  input.getHeaders().setContentType(mediaType);
+  return input;
+ }
+
+ private interface Encoder {
+
+  byte[] encode() throws IOException;
+ }
+
+ private interface Decoder {
+
+  Object decode() throws IOException;
+ }
+}
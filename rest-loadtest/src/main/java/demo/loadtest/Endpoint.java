@@ -0,0 +1,88 @@
+package demo.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * The read endpoints a load test can exercise, with the representation each
+ * one is asked for.
+ */
+enum Endpoint {
+
+ V1("v1", "/v1/customers/%s", "application/json"),
+
+ V2("v2", "/v2/customers/%s", "application/hal+json"),
+
+ PROTOBUF("protobuf", "/v1/protos/customers/%s", "application/x-protobuf"),
+
+ PHOTO("photo", "/customers/%s/photo", "image/jpeg"),
+
+ VERSIONED("versioned", "/api/hi", "application/vnd.bootiful.demo-v2+json");
+
+ private static final int TIMEOUT_MILLIS = 30_000;
+
+ private final String name;
+
+ private final String path;
+
+ private final String accept;
+
+ Endpoint(String name, String path, String accept) {
+  this.name = name;
+  this.path = path;
+  this.accept = accept;
+ }
+
+ static Endpoint named(String name) {
+  for (Endpoint endpoint : values()) {
+   if (endpoint.name.equals(name)) {
+    return endpoint;
+   }
+  }
+  throw new IllegalArgumentException("unknown endpoint " + name);
+ }
+
+ String getName() {
+  return name;
+ }
+
+ /**
+  * Performs a {@code GET} and reads the whole response, so that the
+  * connection can be reused.
+  *
+  * @return the HTTP status, or {@code -1} if the request failed
+  */
+ int get(String baseUrl, long customerId) {
+  try {
+   HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl
+    + String.format(this.path, customerId)).openConnection();
+   connection.setConnectTimeout(TIMEOUT_MILLIS);
+   connection.setReadTimeout(TIMEOUT_MILLIS);
+   connection.setRequestProperty("Accept", this.accept);
+   int status = connection.getResponseCode();
+   drain(status < 400 ? connection.getInputStream() : connection
+    .getErrorStream());
+   return status;
+  }
+  catch (IOException e) {
+   return -1;
+  }
+ }
+
+ static byte[] drain(InputStream in) throws IOException {
+  ByteArrayOutputStream out = new ByteArrayOutputStream();
+  if (in != null) {
+   try (InputStream body = in) {
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = body.read(buffer)) != -1) {
+     out.write(buffer, 0, read);
+    }
+   }
+  }
+  return out.toByteArray();
+ }
+}
@@ -0,0 +1,112 @@
+package demo.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records two latencies per request, in microseconds. The <em>service
+ * time</em> runs from the moment the request was actually sent; the
+ * <em>response time</em> runs from the moment the schedule said it should
+ * have been sent, so it also counts the time a request waited behind slow
+ * ones. Only the response time is free of coordinated omission.
+ */
+class LatencyRecorder {
+
+ private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+ private final Map<Endpoint, Histogram> responseTimes = new EnumMap<>(
+  Endpoint.class);
+
+ private final Map<Endpoint, Histogram> serviceTimes = new EnumMap<>(
+  Endpoint.class);
+
+ private final Map<Endpoint, AtomicLong> errors = new EnumMap<>(
+  Endpoint.class);
+
+ private final Histogram responseTime = histogram();
+
+ private final Histogram serviceTime = histogram();
+
+ LatencyRecorder() {
+  for (Endpoint endpoint : Endpoint.values()) {
+   this.responseTimes.put(endpoint, histogram());
+   this.serviceTimes.put(endpoint, histogram());
+   this.errors.put(endpoint, new AtomicLong());
+  }
+ }
+
+ void record(Endpoint endpoint, long intendedNanos, long sentNanos,
+  long doneNanos, int status) {
+  long response = micros(doneNanos - intendedNanos);
+  long service = micros(doneNanos - sentNanos);
+  this.responseTimes.get(endpoint).recordValue(response);
+  this.serviceTimes.get(endpoint).recordValue(service);
+  this.responseTime.recordValue(response);
+  this.serviceTime.recordValue(service);
+  if (status < 200 || status >= 400) {
+   this.errors.get(endpoint).incrementAndGet();
+  }
+ }
+
+ long count() {
+  return this.serviceTime.getTotalCount();
+ }
+
+ long errors() {
+  return this.errors.values().stream().mapToLong(AtomicLong::get).sum();
+ }
+
+ Histogram serviceTime() {
+  return this.serviceTime;
+ }
+
+ Histogram responseTime() {
+  return this.responseTime;
+ }
+
+ void printSummary(PrintStream out, double seconds) {
+  out.printf("%-10s %9s %9s %8s   %s%n", "endpoint", "requests", "req/s",
+   "errors", "latency in ms: p50 p90 p99 p99.9 max");
+  for (Endpoint endpoint : Endpoint.values()) {
+   Histogram response = this.responseTimes.get(endpoint);
+   if (response.getTotalCount() > 0) {
+    printRow(out, endpoint.getName(), response,
+     this.serviceTimes.get(endpoint), this.errors.get(endpoint).get(),
+     seconds);
+   }
+  }
+  printRow(out, "all", this.responseTime, this.serviceTime, errors(), seconds);
+ }
+
+ private static void printRow(PrintStream out, String name,
+  Histogram response, Histogram service, long errors, double seconds) {
+  long count = response.getTotalCount();
+  out.printf("%-10s %9d %9.1f %7.2f%%   response %s%n", name, count, count
+   / seconds, 100.0 * errors / count, percentiles(response));
+  out.printf("%-10s %9s %9s %8s   service  %s%n", "", "", "", "",
+   percentiles(service));
+ }
+
+ private static String percentiles(Histogram histogram) {
+  return String.format("%.2f %.2f %.2f %.2f %.2f",
+   histogram.getValueAtPercentile(50) / 1000.0,
+   histogram.getValueAtPercentile(90) / 1000.0,
+   histogram.getValueAtPercentile(99) / 1000.0,
+   histogram.getValueAtPercentile(99.9) / 1000.0,
+   histogram.getMaxValue() / 1000.0);
+ }
+
+ private static long micros(long nanos) {
+  return Math.min(HIGHEST_MICROS, Math.max(0, nanos / 1000));
+ }
+
+ private static Histogram histogram() {
+  return new ConcurrentHistogram(HIGHEST_MICROS, 3);
+ }
+}
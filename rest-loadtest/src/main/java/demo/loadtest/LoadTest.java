@@ -0,0 +1,248 @@
+package demo.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import demo.Application;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a mix of read endpoints, first as an open model (requests are
+ * started on a fixed schedule, whether or not earlier ones have completed)
+ * and then as a closed-model sweep over thread counts, and writes latency
+ * percentiles, throughput and error rates to the report directory.
+ */
+public class LoadTest {
+
+ private final LoadTestSettings settings;
+
+ private final Random random = new Random(42);
+
+ private String baseUrl;
+
+ private long[] customerIds;
+
+ private Endpoint[] weightedEndpoints;
+
+ LoadTest(LoadTestSettings settings) {
+  this.settings = settings;
+ }
+
+ public static void main(String[] args) throws Exception {
+  LoadTestSettings settings = new LoadTestSettings(args);
+  // HttpURLConnection keeps at most http.maxConnections idle connections
+  // per host, and would otherwise reconnect for most requests
+  System.setProperty("http.maxConnections",
+   Integer.toString(Math.max(settings.workers(), settings.sweep().stream()
+    .mapToInt(Integer::intValue).max().orElse(1))));
+  ConfigurableApplicationContext application = null;
+  if (!settings.target().isPresent()) {
+   application = new SpringApplicationBuilder(Application.class).properties(
+    "server.port=0",
+    "upload.dir=" + Files.createTempDirectory("loadtest-photos")).run();
+  }
+  try {
+   String baseUrl = settings.target().orElse(
+    "http://localhost:"
+     + application.getEnvironment().getProperty("local.server.port"));
+   new LoadTest(settings).run(baseUrl);
+  }
+  finally {
+   if (application != null) {
+    application.close();
+   }
+  }
+ }
+
+ void run(String baseUrl) throws Exception {
+  this.baseUrl = baseUrl;
+  this.customerIds = customerIds();
+  this.weightedEndpoints = weightedEndpoints(this.settings.mix());
+  if (this.settings.mix().getOrDefault(Endpoint.PHOTO, 0) > 0) {
+   uploadPhotos();
+  }
+  File reports = this.settings.reportDirectory();
+  if (!reports.exists() && !reports.mkdirs()) {
+   throw new IOException("could not create " + reports);
+  }
+  File summary = new File(reports, "summary.txt");
+  try (PrintStream out = new PrintStream(new FileOutputStream(summary), true,
+   "UTF-8")) {
+   out.printf("target %s, %s customers, settings %s%n%n", baseUrl,
+    this.customerIds.length, this.settings);
+   LatencyRecorder recorder = openModel();
+   out.printf("open model: %s requests/s for %ss after a %ss warmup%n",
+    this.settings.rate(), this.settings.durationSeconds(),
+    this.settings.warmupSeconds());
+   recorder.printSummary(out, this.settings.durationSeconds());
+   writeDistribution(new File(reports, "response-time.hgrm"), recorder
+    .responseTime().copy());
+   writeDistribution(new File(reports, "service-time.hgrm"), recorder
+    .serviceTime().copy());
+   if (!this.settings.sweep().isEmpty()) {
+    out.printf("%nclosed model sweep, %ss per step (%s cores)%n",
+     this.settings.sweepDurationSeconds(), Runtime.getRuntime()
+      .availableProcessors());
+    out.printf("%8s %10s %8s %10s %10s%n", "threads", "req/s", "errors",
+     "p50 ms", "p99 ms");
+    for (int threads : this.settings.sweep()) {
+     LatencyRecorder step = closedModel(threads);
+     double seconds = this.settings.sweepDurationSeconds();
+     out.printf("%8d %10.1f %7.2f%% %10.2f %10.2f%n", threads, step.count()
+      / seconds, 100.0 * step.errors() / Math.max(1, step.count()), step
+      .serviceTime().getValueAtPercentile(50) / 1000.0, step.serviceTime()
+      .getValueAtPercentile(99) / 1000.0);
+    }
+   }
+  }
+  Files.copy(summary.toPath(), System.out);
+ }
+
+ // requests are started at their scheduled time no matter how many are
+ // still outstanding, and their latency counts from that time
+ private LatencyRecorder openModel() throws InterruptedException {
+  LatencyRecorder recorder = new LatencyRecorder();
+  ExecutorService workers = Executors.newFixedThreadPool(this.settings
+   .workers());
+  long interval = TimeUnit.SECONDS.toNanos(1) / this.settings.rate();
+  long start = System.nanoTime();
+  long recordFrom = start
+   + TimeUnit.SECONDS.toNanos(this.settings.warmupSeconds());
+  long end = recordFrom
+   + TimeUnit.SECONDS.toNanos(this.settings.durationSeconds());
+  for (long intended = start; intended < end; intended += interval) {
+   long wait;
+   while ((wait = intended - System.nanoTime()) > 0) {
+    LockSupport.parkNanos(wait);
+   }
+   Endpoint endpoint = nextEndpoint();
+   long customerId = nextCustomerId();
+   boolean record = intended >= recordFrom;
+   long scheduled = intended;
+   workers.execute(() -> {
+    long sent = System.nanoTime();
+    int status = endpoint.get(this.baseUrl, customerId);
+    if (record) {
+     recorder.record(endpoint, scheduled, sent, System.nanoTime(), status);
+    }
+   });
+  }
+  workers.shutdown();
+  workers.awaitTermination(1, TimeUnit.MINUTES);
+  return recorder;
+ }
+
+ // each thread sends its next request as soon as the previous one completes
+ private LatencyRecorder closedModel(int threads) throws InterruptedException {
+  LatencyRecorder recorder = new LatencyRecorder();
+  AtomicBoolean running = new AtomicBoolean(true);
+  ExecutorService workers = Executors.newFixedThreadPool(threads);
+  for (int i = 0; i < threads; i++) {
+   workers.execute(() -> {
+    Random random = ThreadLocalRandom.current();
+    while (running.get()) {
+     Endpoint endpoint = this.weightedEndpoints[random
+      .nextInt(this.weightedEndpoints.length)];
+     long customerId = this.customerIds[random
+      .nextInt(this.customerIds.length)];
+     long sent = System.nanoTime();
+     int status = endpoint.get(this.baseUrl, customerId);
+     if (running.get()) {
+      recorder.record(endpoint, sent, sent, System.nanoTime(), status);
+     }
+    }
+   });
+  }
+  Thread.sleep(TimeUnit.SECONDS.toMillis(this.settings.sweepDurationSeconds()));
+  running.set(false);
+  workers.shutdown();
+  workers.awaitTermination(1, TimeUnit.MINUTES);
+  return recorder;
+ }
+
+ private Endpoint nextEndpoint() {
+  return this.weightedEndpoints[this.random
+   .nextInt(this.weightedEndpoints.length)];
+ }
+
+ private long nextCustomerId() {
+  return this.customerIds[this.random.nextInt(this.customerIds.length)];
+ }
+
+ private long[] customerIds() throws IOException {
+  HttpURLConnection connection = (HttpURLConnection) new URL(this.baseUrl
+   + "/v1/customers?limit=100").openConnection();
+  connection.setRequestProperty("Accept", "application/json");
+  JsonNode customers = new ObjectMapper().readTree(connection.getInputStream());
+  long[] ids = new long[customers.size()];
+  for (int i = 0; i < ids.length; i++) {
+   ids[i] = customers.get(i).get("id").asLong();
+  }
+  if (ids.length == 0) {
+   throw new IllegalStateException("there are no customers at "
+    + this.baseUrl);
+  }
+  return ids;
+ }
+
+ private static Endpoint[] weightedEndpoints(Map<Endpoint, Integer> mix) {
+  List<Endpoint> endpoints = new ArrayList<>();
+  mix.forEach((endpoint, weight) -> endpoints.addAll(Collections.nCopies(
+   weight, endpoint)));
+  if (endpoints.isEmpty()) {
+   throw new IllegalArgumentException("the mix selects no endpoint");
+  }
+  return endpoints.toArray(new Endpoint[endpoints.size()]);
+ }
+
+ // the photo endpoint only serves photos that have been uploaded
+ private void uploadPhotos() throws IOException {
+  BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+  ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+  ImageIO.write(image, "jpg", jpeg);
+  String boundary = "loadtest-" + UUID.randomUUID();
+  for (long id : this.customerIds) {
+   HttpURLConnection connection = (HttpURLConnection) new URL(this.baseUrl
+    + "/customers/" + id + "/photo").openConnection();
+   connection.setRequestMethod("POST");
+   connection.setDoOutput(true);
+   connection.setRequestProperty("Content-Type",
+    "multipart/form-data; boundary=" + boundary);
+   try (OutputStream out = connection.getOutputStream()) {
+    out.write(("--" + boundary + "\r\n"
+     + "Content-Disposition: form-data; name=\"file\"; filename=\"photo.jpg\"\r\n"
+     + "Content-Type: image/jpeg\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+    out.write(jpeg.toByteArray());
+    out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+   }
+   int status = connection.getResponseCode();
+   Endpoint.drain(status < 400 ? connection.getInputStream() : connection
+    .getErrorStream());
+   if (status >= 400) {
+    throw new IOException("could not upload a photo for customer " + id
+     + ": " + status);
+   }
+  }
+ }
+
+ private static void writeDistribution(File file,
+  org.HdrHistogram.Histogram histogram) throws IOException {
+  try (PrintStream out = new PrintStream(new FileOutputStream(file), false,
+   "UTF-8")) {
+   // in milliseconds
+   histogram.outputPercentileDistribution(out, 1000.0);
+  }
+ }
+}
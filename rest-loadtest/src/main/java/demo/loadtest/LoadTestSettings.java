@@ -0,0 +1,99 @@
+package demo.loadtest;
+
+import java.io.File;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * The options of a load test, given as {@code --name=value} arguments:
+ * <ul>
+ * <li>{@code target}: base URL of a running instance; if absent, an
+ * {@code Application} is started in this JVM on a random port</li>
+ * <li>{@code mix}: relative weights of the endpoints, e.g.
+ * {@code v1=40,v2=20,protobuf=20,photo=10,versioned=10}</li>
+ * <li>{@code rate}: requests per second of the open-model run</li>
+ * <li>{@code warmup}, {@code duration}: seconds of the open-model run that
+ * are discarded and recorded</li>
+ * <li>{@code workers}: threads (and connections) that carry the requests</li>
+ * <li>{@code sweep}: comma-separated thread counts of the closed-model sweep,
+ * empty to skip it; {@code sweep-duration}: seconds per thread count</li>
+ * <li>{@code report}: directory the reports are written to</li>
+ * </ul>
+ */
+class LoadTestSettings {
+
+ private final Map<String, String> values = new HashMap<>();
+
+ LoadTestSettings(String[] args) {
+  int cores = Runtime.getRuntime().availableProcessors();
+  List<String> sweep = new ArrayList<>();
+  for (int threads = 1; threads <= cores * 2; threads *= 2) {
+   sweep.add(Integer.toString(threads));
+  }
+  this.values.put("mix", "v1=40,v2=20,protobuf=20,photo=10,versioned=10");
+  this.values.put("rate", "500");
+  this.values.put("warmup", "5");
+  this.values.put("duration", "30");
+  this.values.put("workers", "64");
+  this.values.put("sweep", String.join(",", sweep));
+  this.values.put("sweep-duration", "10");
+  this.values.put("report", "target/loadtest");
+  for (String arg : args) {
+   if (!arg.startsWith("--") || !arg.contains("=")) {
+    throw new IllegalArgumentException("expected --name=value, got " + arg);
+   }
+   int separator = arg.indexOf('=');
+   this.values.put(arg.substring(2, separator), arg.substring(separator + 1));
+  }
+ }
+
+ Optional<String> target() {
+  return Optional.ofNullable(this.values.get("target")).map(
+   t -> t.endsWith("/") ? t.substring(0, t.length() - 1) : t);
+ }
+
+ Map<Endpoint, Integer> mix() {
+  Map<Endpoint, Integer> mix = new EnumMap<>(Endpoint.class);
+  for (String entry : this.values.get("mix").split(",")) {
+   String[] weight = entry.trim().split("=");
+   mix.put(Endpoint.named(weight[0].trim()), Integer.valueOf(weight[1].trim()));
+  }
+  return mix;
+ }
+
+ int rate() {
+  return Integer.parseInt(this.values.get("rate"));
+ }
+
+ int warmupSeconds() {
+  return Integer.parseInt(this.values.get("warmup"));
+ }
+
+ int durationSeconds() {
+  return Integer.parseInt(this.values.get("duration"));
+ }
+
+ int workers() {
+  return Integer.parseInt(this.values.get("workers"));
+ }
+
+ List<Integer> sweep() {
+  String sweep = this.values.get("sweep").trim();
+  return sweep.isEmpty() ? Collections.emptyList() : Arrays
+   .stream(sweep.split(",")).map(String::trim).map(Integer::valueOf)
+   .collect(Collectors.toList());
+ }
+
+ int sweepDurationSeconds() {
+  return Integer.parseInt(this.values.get("sweep-duration"));
+ }
+
+ File reportDirectory() {
+  return new File(this.values.get("report"));
+ }
+
+ @Override
+ public String toString() {
+  return new TreeMap<>(this.values).toString();
+ }
+}